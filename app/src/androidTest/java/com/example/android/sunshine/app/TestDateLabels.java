@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.JulianDay;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/*
+    Checks DateLabels says the same as the SimpleDateFormats Utility used to make every call, for
+    the days either side of today, that binding a day again hands back the label it already made,
+    and that they start over on their own once JulianDay moves to a new time zone.
+ */
+public class TestDateLabels extends AndroidTestCase {
+
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+
+    private TimeZone mDefaultZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultZone);
+        JulianDay.onTimeZoneChanged();
+        super.tearDown();
+    }
+
+    public void testLabelsMatchOldFormatting() {
+        int today = JulianDay.today();
+        for (int julianDay = today - 14; julianDay < today + 21; julianDay++) {
+            // The middle of the day, away from any daylight saving change
+            long date = JulianDay.toMillis(julianDay) + 12 * HOUR_IN_MILLIS;
+            checkLabels(date);
+        }
+    }
+
+    public void testRepeatedBindsReuseLabels() {
+        int today = JulianDay.today();
+        for (int day = 0; day < 14; day++) {
+            long date = JulianDay.toMillis(today + day) + HOUR_IN_MILLIS;
+            String first = Utility.getFriendlyDayString(mContext, date, day == 0);
+            // Any time during the day gets the same label
+            String again = Utility.getFriendlyDayString(mContext, date + HOUR_IN_MILLIS, day == 0);
+            assertSame("Error: The label for day " + day + " was made twice", first, again);
+        }
+    }
+
+    public void testTimeZoneChange() {
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+        JulianDay.onTimeZoneChanged();
+        checkLabels(JulianDay.toMillis(JulianDay.today() + 10));
+
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Pago_Pago"));
+        JulianDay.onTimeZoneChanged();
+        checkLabels(JulianDay.toMillis(JulianDay.today() + 10));
+    }
+
+    private void checkLabels(long date) {
+        assertEquals("Error: Wrong friendly day for " + date,
+                oldFriendlyDayString(date, false), Utility.getFriendlyDayString(mContext, date, false));
+        assertEquals("Error: Wrong long friendly day for " + date,
+                oldFriendlyDayString(date, true), Utility.getFriendlyDayString(mContext, date, true));
+        assertEquals("Error: Wrong full friendly day for " + date,
+                mContext.getString(R.string.format_full_friendly_date, oldDayName(date),
+                        new SimpleDateFormat("MMMM dd").format(date)),
+                Utility.getFullFriendlyDayString(mContext, date));
+        assertEquals("Error: Wrong day name for " + date,
+                oldDayName(date), Utility.getDayName(mContext, date));
+        assertEquals("Error: Wrong month and day for " + date,
+                new SimpleDateFormat("MMMM dd").format(date),
+                Utility.getFormattedMonthDay(mContext, date));
+    }
+
+    // What Utility.getFriendlyDayString was
+    private String oldFriendlyDayString(long dateInMillis, boolean displayLongToday) {
+        int julianDay = JulianDay.fromMillis(dateInMillis);
+        int currentJulianDay = JulianDay.today();
+        if (displayLongToday && julianDay == currentJulianDay) {
+            return mContext.getString(R.string.format_full_friendly_date,
+                    mContext.getString(R.string.today),
+                    new SimpleDateFormat("MMMM dd").format(dateInMillis));
+        } else if (julianDay < currentJulianDay + 7) {
+            return oldDayName(dateInMillis);
+        } else {
+            return new SimpleDateFormat("EEE MMM dd").format(dateInMillis);
+        }
+    }
+
+    // What Utility.getDayName was
+    private String oldDayName(long dateInMillis) {
+        int julianDay = JulianDay.fromMillis(dateInMillis);
+        int currentJulianDay = JulianDay.today();
+        if (julianDay == currentJulianDay) {
+            return mContext.getString(R.string.today);
+        } else if (julianDay == currentJulianDay + 1) {
+            return mContext.getString(R.string.tomorrow);
+        } else {
+            return new SimpleDateFormat("EEEE").format(dateInMillis);
+        }
+    }
+}
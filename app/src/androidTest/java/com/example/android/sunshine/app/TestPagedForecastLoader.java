@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.JulianDay;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks the loader works out where the day to select is in the list, so the forecast list
+    doesn't have to page through the cursor on the main thread to find it.
+ */
+public class TestPagedForecastLoader extends AndroidTestCase {
+
+    private static final String LOCATION = "99705";
+    private static final int DAYS = 3 * PagedForecastLoader.PAGE_SIZE;
+
+    private int mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location);
+
+        mToday = JulianDay.today();
+        ContentValues[] days = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            days[i] = new ContentValues();
+            days[i].put(WeatherEntry.COLUMN_LOC_KEY, ContentUris.parseId(locationUri));
+            days[i].put(WeatherEntry.COLUMN_DATE, JulianDay.toMillis(mToday + i));
+            days[i].put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            days[i].put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            days[i].put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            days[i].put(WeatherEntry.COLUMN_MAX_TEMP, 75);
+            days[i].put(WeatherEntry.COLUMN_MIN_TEMP, 65);
+            days[i].put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            days[i].put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            days[i].put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+    }
+
+    public void testSelectedPosition() {
+        // Two pages in, so finding it in the cursor would have read both
+        int selected = 2 * PagedForecastLoader.PAGE_SIZE + 5;
+        assertEquals(selected, loadSelectedPosition(JulianDay.toMillis(mToday + selected)));
+        assertEquals(0, loadSelectedPosition(JulianDay.toMillis(mToday)));
+    }
+
+    public void testNoSelectedPosition() {
+        assertEquals(-1, loadSelectedPosition(-1));
+        assertEquals("Error: Found a day before the list starts",
+                -1, loadSelectedPosition(JulianDay.toMillis(mToday - 1)));
+        assertEquals("Error: Found a day past the forecast",
+                -1, loadSelectedPosition(JulianDay.toMillis(mToday + DAYS)));
+    }
+
+    private int loadSelectedPosition(long selectedDate) {
+        return PagedForecastLoader.getSelectedPosition(mContext.getContentResolver(), LOCATION,
+                System.currentTimeMillis(), selectedDate);
+    }
+}
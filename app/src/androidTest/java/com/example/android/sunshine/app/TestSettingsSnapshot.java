@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+import android.database.MatrixCursor;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.AbsListView;
+
+/*
+    Binds forecast rows through a context that counts how often it's asked for SharedPreferences,
+    to check the settings come out of the snapshot instead, and that the snapshot keeps up with
+    changes.
+ */
+public class TestSettingsSnapshot extends AndroidTestCase {
+
+    private static final int ROWS = 14;
+    private static final int BINDS = 500;
+    private static final long FIRST_DATE = 1419033600000L;  // December 20th, 2014
+
+    // SharedPreferences tells its listeners on the main thread, so a change takes a moment
+    private static final long CHANGE_TIMEOUT_MILLIS = 2000;
+
+    private String mUnits;
+
+    static class CountingContext extends ContextWrapper {
+        int sharedPreferencesReads;
+
+        CountingContext(Context base) {
+            super(base);
+        }
+
+        @Override
+        public SharedPreferences getSharedPreferences(String name, int mode) {
+            sharedPreferencesReads++;
+            return super.getSharedPreferences(name, mode);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnits = prefs.getString(mContext.getString(R.string.pref_units_key), null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        String unitsKey = mContext.getString(R.string.pref_units_key);
+        if (mUnits == null) {
+            editor.remove(unitsKey);
+        } else {
+            editor.putString(unitsKey, mUnits);
+        }
+        editor.commit();
+        super.tearDown();
+    }
+
+    public void testBindDoesNotReadPreferences() {
+        // Whatever reads the settings first makes the snapshot, after that nobody should have to
+        SettingsSnapshot.get(mContext);
+
+        CountingContext context = new CountingContext(mContext);
+        ForecastAdapter adapter = new ForecastAdapter(context, null, new View(context),
+                AbsListView.CHOICE_MODE_NONE);
+        adapter.setUseTodayLayout(false);
+        adapter.swapCursor(createForecastCursor());
+
+        View view = LayoutInflater.from(context).inflate(R.layout.list_item_forecast, null);
+        ForecastAdapter.ForecastAdapterViewHolder holder = adapter.new ForecastAdapterViewHolder(view);
+        for (int i = 0; i < BINDS; i++) {
+            adapter.onBindViewHolder(holder, i % ROWS);
+        }
+
+        assertEquals("Error: Binding rows read SharedPreferences", 0, context.sharedPreferencesReads);
+        assertTrue("Error: The row wasn't bound", holder.mHighTempView.getText().length() > 0);
+    }
+
+    public void testSnapshotFollowsChanges() {
+        String unitsKey = mContext.getString(R.string.pref_units_key);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+
+        prefs.edit().putString(unitsKey, mContext.getString(R.string.pref_units_imperial)).commit();
+        assertTrue("Error: The snapshot didn't pick up imperial units", waitForMetric(false));
+
+        prefs.edit().putString(unitsKey, mContext.getString(R.string.pref_units_metric)).commit();
+        assertTrue("Error: The snapshot didn't pick up metric units", waitForMetric(true));
+    }
+
+    private boolean waitForMetric(boolean metric) {
+        long deadline = SystemClock.elapsedRealtime() + CHANGE_TIMEOUT_MILLIS;
+        while (Utility.isMetric(mContext) != metric) {
+            if (SystemClock.elapsedRealtime() > deadline) {
+                return false;
+            }
+            SystemClock.sleep(10);
+        }
+        return true;
+    }
+
+    // Laid out like ForecastFragment's FORECAST_COLUMNS
+    private static MatrixCursor createForecastCursor() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "date", "short_desc", "max",
+                "min", "location_setting", "weather_id", "coord_lat", "coord_long"});
+        for (int i = 0; i < ROWS; i++) {
+            long date = FIRST_DATE + i * 24L * 60 * 60 * 1000;
+            cursor.addRow(new Object[]{i, date, "Clear", 20.5 + i, 10.5 + i, "99705",
+                    800, 64.7488, -147.353});
+        }
+        return cursor;
+    }
+}
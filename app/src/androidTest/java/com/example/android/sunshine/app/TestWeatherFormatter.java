@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/*
+    Checks WeatherFormatter comes out the same as the String.format calls Utility used to make,
+    and that once it's seen a set of values, formatting them again doesn't allocate anything.
+ */
+public class TestWeatherFormatter extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherFormatter.class.getSimpleName();
+
+    // Two weeks of highs and lows, and the wind for each day
+    private static final double[] HIGHS =
+            {21.3, 22.5, 19.8, -3.5, 0.4, 15.0, 24.49, 30.51, 18.2, 17.7, 16.5, 12.1, 8.9, 10.0};
+    private static final double[] LOWS =
+            {11.3, 12.5, 9.8, -13.5, -7.6, 5.0, 14.49, 20.51, 8.2, 7.7, 6.5, 2.1, 1.9, 0.0};
+    private static final float[] WIND_SPEEDS =
+            {4.5f, 7.2f, 0f, 12.8f, 33.3f, 1.1f, 5.5f, 9.9f, 2.2f, 3.7f, 6.4f, 8.1f, 10.5f, 14f};
+    private static final float[] WIND_DEGREES =
+            {0f, 22.5f, 67.5f, 112.4f, 180f, 202.5f, 270f, 337.5f, 359.9f, 45f, 90f, 135f, 225f, 315f};
+
+    private static final int BINDS = 1000;
+
+    public void testTemperaturesMatchStringFormat() {
+        String format = mContext.getString(R.string.format_temperature);
+        for (int i = -1200; i <= 1200; i++) {
+            double celsius = i / 20.0;
+            assertEquals("Error: Wrong metric temperature for " + celsius,
+                    String.format(format, celsius),
+                    WeatherFormatter.formatTemperature(mContext, celsius, true));
+            assertEquals("Error: Wrong imperial temperature for " + celsius,
+                    String.format(format, (celsius * 1.8) + 32),
+                    WeatherFormatter.formatTemperature(mContext, celsius, false));
+        }
+        // Off the ends of the tables
+        assertEquals(String.format(format, 1000.0),
+                WeatherFormatter.formatTemperature(mContext, 1000.0, true));
+        assertEquals(String.format(format, -1000.0),
+                WeatherFormatter.formatTemperature(mContext, -1000.0, true));
+        assertEquals(String.format(format, 0.49999999999999994),
+                WeatherFormatter.formatTemperature(mContext, 0.49999999999999994, true));
+    }
+
+    public void testWindsMatchOldFormatting() {
+        for (int i = 0; i <= 1000; i++) {
+            float windSpeed = i / 10f;
+            for (float degrees = -45f; degrees <= 405f; degrees += 7.5f) {
+                assertEquals("Error: Wrong metric wind for " + windSpeed + " from " + degrees,
+                        oldFormattedWind(true, windSpeed, degrees),
+                        WeatherFormatter.formatWind(mContext, windSpeed, degrees, true));
+                assertEquals("Error: Wrong imperial wind for " + windSpeed + " from " + degrees,
+                        oldFormattedWind(false, windSpeed, degrees),
+                        WeatherFormatter.formatWind(mContext, windSpeed, degrees, false));
+            }
+        }
+        assertEquals(oldFormattedWind(true, 5f, Float.NaN),
+                WeatherFormatter.formatWind(mContext, 5f, Float.NaN, true));
+    }
+
+    public void testBindsDoNotAllocate() {
+        // The first time through fills in the tables
+        formatRows();
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < BINDS; i++) {
+            formatRows();
+        }
+        Debug.stopAllocCounting();
+        int allocations = Debug.getThreadAllocCount();
+
+        Log.i(LOG_TAG, BINDS + " times " + HIGHS.length + " rows: " + allocations + " allocations");
+        assertEquals("Error: Formatting values it's seen before allocated", 0, allocations);
+    }
+
+    private void formatRows() {
+        for (int day = 0; day < HIGHS.length; day++) {
+            WeatherFormatter.formatTemperature(mContext, HIGHS[day], true);
+            WeatherFormatter.formatTemperature(mContext, LOWS[day], true);
+            WeatherFormatter.formatTemperature(mContext, HIGHS[day], false);
+            WeatherFormatter.formatTemperature(mContext, LOWS[day], false);
+            WeatherFormatter.formatWind(mContext, WIND_SPEEDS[day], WIND_DEGREES[day], true);
+            WeatherFormatter.formatWind(mContext, WIND_SPEEDS[day], WIND_DEGREES[day], false);
+        }
+    }
+
+    // What Utility.getFormattedWind was
+    private String oldFormattedWind(boolean metric, float windSpeed, float degrees) {
+        int windFormat;
+        if (metric) {
+            windFormat = R.string.format_wind_kmh;
+        } else {
+            windFormat = R.string.format_wind_mph;
+            windSpeed = .621371192237334f * windSpeed;
+        }
+
+        String direction = "Unknown";
+        if (degrees >= 337.5 || degrees < 22.5) {
+            direction = "N";
+        } else if (degrees >= 22.5 && degrees < 67.5) {
+            direction = "NE";
+        } else if (degrees >= 67.5 && degrees < 112.5) {
+            direction = "E";
+        } else if (degrees >= 112.5 && degrees < 157.5) {
+            direction = "SE";
+        } else if (degrees >= 157.5 && degrees < 202.5) {
+            direction = "S";
+        } else if (degrees >= 202.5 && degrees < 247.5) {
+            direction = "SW";
+        } else if (degrees >= 247.5 && degrees < 292.5) {
+            direction = "W";
+        } else if (degrees >= 292.5 && degrees < 337.5) {
+            direction = "NW";
+        }
+        return String.format(mContext.getString(windFormat), windSpeed, direction);
+    }
+}
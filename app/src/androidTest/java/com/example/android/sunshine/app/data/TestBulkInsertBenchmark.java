@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.Suppress;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Compares how many weather rows a second go in through SQLiteDatabase.insert, which is how
+    bulkInsert used to write every row, against the compiled statements it uses now.  The rows
+    are the shape the sync adapter sends: one forecast day each, every column filled in.
+
+    The numbers go to the log; the test itself only checks both paths wrote every row.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    private SQLiteDatabase mDb;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        mLocationRowId = mDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    // One sync of one location
+    public void testFourteenRows() {
+        compareInsertPaths(14);
+    }
+
+    public void testThousandRows() {
+        compareInsertPaths(1000);
+    }
+
+    // Minutes on a phone, so it's left out of the usual run; take the @Suppress off to get
+    // its numbers
+    @Suppress
+    public void testHundredThousandRows() {
+        compareInsertPaths(100000);
+    }
+
+    private void compareInsertPaths(int rowCount) {
+        ContentValues[] rows = createRows(rowCount);
+
+        // Warm both paths up, so neither pays for loading classes and the schema
+        insertWithContentValues(createRows(14));
+        insertWithCompiledStatements(createRows(14));
+
+        long start = SystemClock.elapsedRealtime();
+        insertWithContentValues(rows);
+        long contentValuesMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals("Error: Not every row was inserted with ContentValues",
+                rowCount, countRows());
+
+        start = SystemClock.elapsedRealtime();
+        insertWithCompiledStatements(rows);
+        long compiledMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals("Error: Not every row was inserted with compiled statements",
+                rowCount, countRows());
+
+        Log.i(LOG_TAG, rowCount + " rows: ContentValues " + rowsPerSecond(rowCount, contentValuesMillis) +
+                " rows/s (" + contentValuesMillis + "ms), compiled statements " +
+                rowsPerSecond(rowCount, compiledMillis) + " rows/s (" + compiledMillis + "ms)");
+    }
+
+    // What bulkInsert did before
+    private void insertWithContentValues(ContentValues[] rows) {
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+        mDb.beginTransaction();
+        try {
+            for (ContentValues row : rows) {
+                mDb.insert(WeatherEntry.TABLE_NAME, null, row);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    private void insertWithCompiledStatements(ContentValues[] rows) {
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+        mDb.beginTransaction();
+        CompiledTableWriter writer = CompiledTableWriter.forWeather(mDb);
+        try {
+            for (ContentValues row : rows) {
+                assertTrue(writer.canWrite(row));
+                writer.insert(row);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            writer.close();
+            mDb.endTransaction();
+        }
+    }
+
+    private ContentValues[] createRows(int rowCount) {
+        long millisecondsInADay = 1000*60*60*24;
+        ContentValues[] rows = new ContentValues[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            // Rows as the weather table stores them, with the description left to the
+            // condition dictionary
+            rows[i] = TestUtilities.createWeatherTableValues(
+                    TestUtilities.createWeatherValues(mLocationRowId));
+            rows[i].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * millisecondsInADay);
+        }
+        return rows;
+    }
+
+    private long countRows() {
+        return DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME);
+    }
+
+    private static long rowsPerSecond(int rowCount, long millis) {
+        return rowCount * 1000L / Math.max(millis, 1);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    Runs the forecast list's query over and over while a sync-sized bulk insert is going on, and
+    checks every read saw either all of the write or none of it.  How long the reads got held up
+    goes to the log; it depends too much on the device to assert on.  With write-ahead logging
+    on, a read made while another connection holds an uncommitted write sees the data from
+    before it, without waiting.
+ */
+public class TestConcurrentReads extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestConcurrentReads.class.getSimpleName();
+
+    // A big sync: a couple of years of days for one location, all in one transaction
+    private static final int ROWS_TO_WRITE = 1000;
+    private static final int READER_COUNT = 3;
+    // What's there before the write: a forecast
+    private static final int INITIAL_DAYS = 14;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testReadersDuringSyncWrite() throws Throwable {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        final long locationRowId = ContentUris.parseId(locationUri);
+
+        // Something for the readers to read before the write starts
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createWeatherValues(locationRowId, 0, INITIAL_DAYS));
+
+        // The forecast list's days, but through the plain weather Uri: the location and
+        // start date Uris are answered from the query cache, which wouldn't touch SQLite at all
+        // until the write committed
+        final String readSelection = WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                WeatherEntry.COLUMN_DATE + " >= ?";
+        final String[] readArgs = {Long.toString(locationRowId),
+                Long.toString(TestUtilities.TEST_DATE)};
+        final CountDownLatch started = new CountDownLatch(READER_COUNT);
+        final AtomicLong longestRead = new AtomicLong();
+        final AtomicLong readCount = new AtomicLong();
+        final AtomicLong readsBeforeCommit = new AtomicLong();
+        final AtomicLong partialRead = new AtomicLong(-1);
+        final Throwable[] readerError = new Throwable[1];
+        final AtomicBoolean writing = new AtomicBoolean(true);
+
+        Thread[] readers = new Thread[READER_COUNT];
+        for (int i = 0; i < READER_COUNT; i++) {
+            readers[i] = new Thread("Reader " + i) {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        while (writing.get()) {
+                            long start = SystemClock.elapsedRealtime();
+                            Cursor cursor = mContext.getContentResolver().query(
+                                    WeatherEntry.CONTENT_URI, null, readSelection, readArgs,
+                                    WeatherEntry.COLUMN_DATE + " ASC");
+                            int days = cursor.getCount();
+                            cursor.close();
+                            long elapsed = SystemClock.elapsedRealtime() - start;
+                            readCount.incrementAndGet();
+                            if (days == INITIAL_DAYS) {
+                                readsBeforeCommit.incrementAndGet();
+                            } else if (days != INITIAL_DAYS + ROWS_TO_WRITE) {
+                                partialRead.set(days);
+                            }
+                            synchronized (longestRead) {
+                                if (elapsed > longestRead.get()) longestRead.set(elapsed);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        readerError[0] = t;
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        started.await();
+
+        // The write the sync adapter does, just bigger
+        long writeStart = SystemClock.elapsedRealtime();
+        int inserted = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createWeatherValues(locationRowId, INITIAL_DAYS, ROWS_TO_WRITE));
+        long writeTime = SystemClock.elapsedRealtime() - writeStart;
+
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        if (readerError[0] != null) {
+            throw readerError[0];
+        }
+        assertEquals(ROWS_TO_WRITE, inserted);
+        assertEquals("Error: A read saw part of the write", -1, partialRead.get());
+
+        Log.i(LOG_TAG, "Wrote " + ROWS_TO_WRITE + " rows in " + writeTime + "ms while " +
+                READER_COUNT + " readers made " + readCount.get() + " reads, " +
+                readsBeforeCommit.get() + " of them before it committed, the longest " +
+                longestRead.get() + "ms");
+    }
+
+    public void testReadDuringUncommittedWrite() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB ||
+                !mContext.getResources().getBoolean(R.bool.database_write_ahead_logging)) {
+            // Without it the read would wait for the write, however long it took
+            return;
+        }
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createWeatherValues(locationRowId, 0, INITIAL_DAYS));
+
+        // A connection of its own, so the provider's reads can't join its transaction
+        SQLiteDatabase writer = new WeatherDbHelper(mContext).getWritableDatabase();
+        writer.beginTransaction();
+        try {
+            for (ContentValues values : createWeatherValues(locationRowId, INITIAL_DAYS, 14)) {
+                writer.insert(WeatherEntry.TABLE_NAME, null,
+                        TestUtilities.createWeatherTableValues(values));
+            }
+            // Through the plain weather Uri, which the query cache leaves alone
+            Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                    WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                    new String[]{Long.toString(locationRowId)}, null);
+            assertEquals("Error: A read saw a write that hadn't committed",
+                    INITIAL_DAYS, cursor.getCount());
+            cursor.close();
+        } finally {
+            writer.endTransaction();
+            writer.close();
+        }
+    }
+
+    static ContentValues[] createWeatherValues(long locationRowId, int firstDay, int days) {
+        long millisecondsInADay = 1000*60*60*24;
+        ContentValues[] values = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationRowId);
+            values[i].put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + (firstDay + i) * millisecondsInADay);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.ConditionEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Builds a database the way version 2 of the app left it, fills it up, and lets WeatherDbHelper
+    upgrade it.  The data has to come through, the schema has to end up the same as a new
+    install's, and the time it takes goes to the log.
+ */
+public class TestDbMigration extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbMigration.class.getSimpleName();
+
+    // Version 2's tables, as they were shipped.  Don't change these to match later versions.
+    private static final String V2_CREATE_LOCATION_TABLE = "CREATE TABLE location (" +
+            "_id INTEGER PRIMARY KEY," +
+            "location_setting TEXT UNIQUE NOT NULL, " +
+            "city_name TEXT NOT NULL, " +
+            "coord_lat REAL NOT NULL, " +
+            "coord_long REAL NOT NULL );";
+    private static final String V2_CREATE_WEATHER_TABLE = "CREATE TABLE weather (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, " +
+            "short_desc TEXT NOT NULL, " +
+            "weather_id INTEGER NOT NULL," +
+            "min REAL NOT NULL, " +
+            "max REAL NOT NULL, " +
+            "humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, " +
+            "wind REAL NOT NULL, " +
+            "degrees REAL NOT NULL, " +
+            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+            " UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    // A few locations' worth of forecasts, which is what most installs will have
+    public void testUpgradeTypicalDatabase() {
+        upgradeVersion2Database(5, 14);
+    }
+
+    public void testUpgradeLargeDatabase() {
+        upgradeVersion2Database(100, 1000);
+    }
+
+    public void testUpgradedSchemaMatchesNewDatabase() {
+        upgradeVersion2Database(1, 1);
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        List<String> upgradedSchema = describeSchema(db);
+        db.close();
+
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        db = new WeatherDbHelper(mContext).getReadableDatabase();
+        List<String> newSchema = describeSchema(db);
+        db.close();
+
+        assertEquals("Error: An upgraded database doesn't look like a new one",
+                newSchema, upgradedSchema);
+    }
+
+    // A later version that rebuilds a table has to leave its decoded view working over the new
+    // one.  This rebuilds the archive table as it is, the way such a step would.
+    public void testRebuildTableAfterVersion6() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        try {
+            ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+            long locationRowId = db.insert(LocationEntry.TABLE_NAME, null, locationValues);
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+            db.insert(ArchiveEntry.TABLE_NAME, null,
+                    TestUtilities.createWeatherTableValues(weatherValues));
+            List<String> schema = describeSchema(db);
+
+            String createSql = DatabaseUtils.stringForQuery(db, "SELECT sql FROM sqlite_master " +
+                    "WHERE type = 'table' AND name = ?", new String[]{ArchiveEntry.TABLE_NAME});
+            Cursor cursor = db.query(ArchiveEntry.TABLE_NAME, null, null, null, null, null, null);
+            String columns = TextUtils.join(", ", cursor.getColumnNames());
+            cursor.close();
+            db.beginTransaction();
+            try {
+                WeatherDbHelper.rebuildTable(db, ArchiveEntry.TABLE_NAME,
+                        createSql.substring(createSql.indexOf('(')), columns, columns);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            assertEquals("Error: Rebuilding the archive changed the schema",
+                    schema, describeSchema(db));
+            cursor = db.query(WeatherDbHelper.VIEW_ARCHIVE_DECODED, null, null, null,
+                    null, null, null);
+            ContentValues expected = new ContentValues(weatherValues);
+            expected.remove(WeatherEntry.COLUMN_SHORT_DESC);
+            TestUtilities.validateCursor("Error: The decoded view doesn't read the rebuilt archive",
+                    cursor, expected);
+        } finally {
+            db.close();
+        }
+    }
+
+    private void upgradeVersion2Database(int locationCount, int dayCount) {
+        createVersion2Database(locationCount, dayCount);
+
+        long start = SystemClock.elapsedRealtime();
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        long upgradeMillis = SystemClock.elapsedRealtime() - start;
+        Log.i(LOG_TAG, "Upgraded " + locationCount + " locations and " +
+                locationCount * dayCount + " weather rows from version 2 to " +
+                WeatherDbHelper.DATABASE_VERSION + " in " + upgradeMillis + "ms");
+
+        try {
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals("Error: Locations were lost in the upgrade",
+                    locationCount, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+            assertEquals("Error: Weather was lost in the upgrade",
+                    locationCount * dayCount, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+
+            Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null,
+                    WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(TestUtilities.TEST_DATE)},
+                    null, null, WeatherEntry.COLUMN_LOC_KEY + " ASC");
+            ContentValues expected = TestUtilities.createWeatherValues(1);
+            TestUtilities.validateCursor("Error: Weather changed in the upgrade", cursor,
+                    TestUtilities.createWeatherTableValues(expected));
+
+            // The description moved into the condition dictionary, once
+            assertEquals("Error: Conditions weren't moved to the dictionary once each",
+                    1, DatabaseUtils.queryNumEntries(db, ConditionEntry.TABLE_NAME));
+            assertEquals("Error: A condition's description was lost in the upgrade",
+                    expected.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    DatabaseUtils.stringForQuery(db, "SELECT " + ConditionEntry.COLUMN_SHORT_DESC +
+                            " FROM " + ConditionEntry.TABLE_NAME + " WHERE " +
+                            ConditionEntry.COLUMN_WEATHER_ID + " = ?",
+                            new String[]{expected.getAsString(WeatherEntry.COLUMN_WEATHER_ID)}));
+        } finally {
+            db.close();
+        }
+    }
+
+    private void createVersion2Database(int locationCount, int dayCount) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME,
+                Context.MODE_PRIVATE, null);
+        try {
+            db.execSQL(V2_CREATE_LOCATION_TABLE);
+            db.execSQL(V2_CREATE_WEATHER_TABLE);
+            db.beginTransaction();
+            try {
+                long millisecondsInADay = 1000*60*60*24;
+                for (int location = 0; location < locationCount; location++) {
+                    ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+                    locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING,
+                            TestUtilities.TEST_LOCATION + "-" + location);
+                    long locationRowId = db.insert(LocationEntry.TABLE_NAME, null, locationValues);
+                    for (int day = 0; day < dayCount; day++) {
+                        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+                        weatherValues.put(WeatherEntry.COLUMN_DATE,
+                                TestUtilities.TEST_DATE + day * millisecondsInADay);
+                        db.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            db.setVersion(2);
+        } finally {
+            db.close();
+        }
+    }
+
+    // Every table's and view's columns and every index, in a form that can be compared
+    private static List<String> describeSchema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<String>();
+        Cursor objects = db.rawQuery("SELECT type, name FROM sqlite_master " +
+                "WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata' " +
+                "ORDER BY type, name", null);
+        try {
+            while (objects.moveToNext()) {
+                String type = objects.getString(0);
+                String name = objects.getString(1);
+                schema.add(type + " " + name);
+                Cursor columns = db.rawQuery("PRAGMA " +
+                        ("index".equals(type) ? "index_info" : "table_info") + "(" + name + ")", null);
+                try {
+                    while (columns.moveToNext()) {
+                        schema.add("  " + DatabaseUtils.dumpCurrentRowToString(columns));
+                    }
+                } finally {
+                    columns.close();
+                }
+            }
+        } finally {
+            objects.close();
+        }
+        return schema;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.Suppress;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Compares weather rows with their measurements as REALs, the way version 5 stored them,
+    against whole tenths in INTEGER columns (see FixedPoint): how big a row is on disk, how long
+    a cursor takes to fill its window and how many rows fit in it, and how long formatting the
+    temperatures takes once they're read.
+
+    The numbers go to the log; the test itself only checks both tables hold the same weather.
+ */
+public class TestFixedPointBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestFixedPointBenchmark.class.getSimpleName();
+
+    private static final String TABLE = "weather";
+
+    private SQLiteDatabase mRealDb;
+    private SQLiteDatabase mFixedPointDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // In memory, so the page counts are only these rows
+        mRealDb = SQLiteDatabase.create(null);
+        mRealDb.execSQL(createTable("REAL"));
+        mFixedPointDb = SQLiteDatabase.create(null);
+        mFixedPointDb.execSQL(createTable("INTEGER"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mRealDb.close();
+        mFixedPointDb.close();
+        super.tearDown();
+    }
+
+    // Five locations' forecasts
+    public void testSeventyRows() {
+        compareEncodings(70);
+    }
+
+    // A couple of years of archive
+    public void testThousandRows() {
+        compareEncodings(1000);
+    }
+
+    // Minutes on a phone, so it's left out of the usual run; take the @Suppress off to get
+    // its numbers
+    @Suppress
+    public void testHundredThousandRows() {
+        compareEncodings(100000);
+    }
+
+    private void compareEncodings(int rowCount) {
+        insertRows(rowCount);
+
+        Log.i(LOG_TAG, rowCount + " rows: bytes per row REAL " + bytesPerRow(mRealDb, rowCount) +
+                ", fixed point " + bytesPerRow(mFixedPointDb, rowCount));
+
+        // Warm both up, so neither pays for loading classes and the schema
+        readTemperatures(mRealDb, false, 14);
+        readTemperatures(mFixedPointDb, true, 14);
+
+        long start = SystemClock.elapsedRealtime();
+        Cursor realCursor = query(mRealDb);
+        long realFillMillis = SystemClock.elapsedRealtime() - start;
+        start = SystemClock.elapsedRealtime();
+        Cursor fixedPointCursor = query(mFixedPointDb);
+        long fixedPointFillMillis = SystemClock.elapsedRealtime() - start;
+        Log.i(LOG_TAG, rowCount + " rows: window fill REAL " + realFillMillis + "ms (" +
+                getWindowRows(realCursor) + " rows in the first window), fixed point " +
+                fixedPointFillMillis + "ms (" + getWindowRows(fixedPointCursor) + " rows)");
+        realCursor.close();
+        fixedPointCursor.close();
+
+        start = SystemClock.elapsedRealtime();
+        String[] realTemperatures = readTemperatures(mRealDb, false, rowCount);
+        long realFormatMillis = SystemClock.elapsedRealtime() - start;
+        start = SystemClock.elapsedRealtime();
+        String[] fixedPointTemperatures = readTemperatures(mFixedPointDb, true, rowCount);
+        long fixedPointFormatMillis = SystemClock.elapsedRealtime() - start;
+        Log.i(LOG_TAG, rowCount + " rows: read and format REAL " + realFormatMillis +
+                "ms, fixed point " + fixedPointFormatMillis + "ms");
+
+        for (int i = 0; i < rowCount; i++) {
+            assertEquals("Error: The encodings disagree about a temperature",
+                    realTemperatures[i], fixedPointTemperatures[i]);
+        }
+    }
+
+    private static String createTable(String measurementType) {
+        return "CREATE TABLE " + TABLE + " (" +
+                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                WeatherEntry.COLUMN_MIN_TEMP + " " + measurementType + " NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " " + measurementType + " NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " " + measurementType + " NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " " + measurementType + " NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " " + measurementType + " NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " " + measurementType + " NOT NULL, " +
+                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+    }
+
+    // Weather the way the server sends it, with fractions on everything
+    private void insertRows(int rowCount) {
+        long millisecondsInADay = 1000*60*60*24;
+        mRealDb.beginTransaction();
+        mFixedPointDb.beginTransaction();
+        try {
+            for (int i = 0; i < rowCount; i++) {
+                ContentValues values = TestUtilities.createWeatherValues(1);
+                values.remove(WeatherEntry.COLUMN_SHORT_DESC);
+                values.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * millisecondsInADay);
+                values.put(WeatherEntry.COLUMN_MIN_TEMP, -20 + (i % 300) / 10.0);
+                values.put(WeatherEntry.COLUMN_MAX_TEMP, -10 + (i % 400) / 10.0);
+                values.put(WeatherEntry.COLUMN_HUMIDITY, i % 100);
+                values.put(WeatherEntry.COLUMN_PRESSURE, 990 + (i % 500) / 10.0);
+                values.put(WeatherEntry.COLUMN_WIND_SPEED, (i % 150) / 10.0);
+                values.put(WeatherEntry.COLUMN_DEGREES, i % 360);
+                mRealDb.insert(TABLE, null, values);
+                mFixedPointDb.insert(TABLE, null, FixedPoint.encode(values));
+            }
+            mRealDb.setTransactionSuccessful();
+            mFixedPointDb.setTransactionSuccessful();
+        } finally {
+            mRealDb.endTransaction();
+            mFixedPointDb.endTransaction();
+        }
+    }
+
+    private static long bytesPerRow(SQLiteDatabase db, int rowCount) {
+        long pageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        return pageCount * pageSize / rowCount;
+    }
+
+    // Filling the window is what getCount does the first time
+    private static Cursor query(SQLiteDatabase db) {
+        Cursor cursor = db.query(TABLE, null, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        cursor.getCount();
+        return cursor;
+    }
+
+    private static int getWindowRows(Cursor cursor) {
+        CursorWindow window = ((SQLiteCursor) cursor).getWindow();
+        return window != null ? window.getNumRows() : 0;
+    }
+
+    // What the forecast list does for each day's high and low
+    private String[] readTemperatures(SQLiteDatabase db, boolean fixedPoint, int rowCount) {
+        String[] temperatures = new String[rowCount * 2];
+        Cursor cursor = db.query(TABLE,
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP, WeatherEntry.COLUMN_MIN_TEMP},
+                null, null, null, null, WeatherEntry.COLUMN_DATE + " ASC", Integer.toString(rowCount));
+        try {
+            for (int i = 0; cursor.moveToNext(); i++) {
+                double high = fixedPoint ? FixedPoint.decode(cursor.getLong(0)) : cursor.getDouble(0);
+                double low = fixedPoint ? FixedPoint.decode(cursor.getLong(1)) : cursor.getDouble(1);
+                temperatures[i * 2] = Utility.formatTemperature(mContext, high);
+                temperatures[i * 2 + 1] = Utility.formatTemperature(mContext, low);
+            }
+        } finally {
+            cursor.close();
+        }
+        return temperatures;
+    }
+}
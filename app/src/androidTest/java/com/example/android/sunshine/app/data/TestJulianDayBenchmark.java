@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import java.util.TimeZone;
+
+/*
+    Checks JulianDay against the Time arithmetic normalizeDate used to do, in zones with and
+    without daylight saving, and times the two.  The timings go to the log.
+ */
+public class TestJulianDayBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestJulianDayBenchmark.class.getSimpleName();
+
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+
+    // Three years of hours, so every daylight saving change in them gets crossed
+    private static final long FIRST_INSTANT = TestUtilities.TEST_DATE;
+    private static final int HOURS = 3 * 366 * 24;
+    // And three from December 2014, for zone rules that came in since
+    private static final long RECENT_INSTANT = TestUtilities.TEST_DATE * 1000;
+
+    private TimeZone mDefaultZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultZone);
+        JulianDay.onTimeZoneChanged();
+        super.tearDown();
+    }
+
+    public void testUtc() {
+        compareWithTime("UTC");
+    }
+
+    public void testLosAngeles() {
+        compareWithTime("America/Los_Angeles");
+    }
+
+    public void testLondon() {
+        compareWithTime("Europe/London");
+    }
+
+    // Half an hour of daylight saving
+    public void testLordHowe() {
+        compareWithTime("Australia/Lord_Howe");
+    }
+
+    // Half an hour off the hour, and fourteen hours ahead
+    public void testKolkataAndKiritimati() {
+        compareWithTime("Asia/Kolkata");
+        compareWithTime("Pacific/Kiritimati");
+    }
+
+    // Daylight saving starts at midnight, so some days start at 01:00
+    public void testHavanaAndSantiago() {
+        compareWithTime("America/Havana");
+        compareWithTime("America/Santiago");
+        compareWithTime("America/Havana", RECENT_INSTANT);
+        compareWithTime("America/Santiago", RECENT_INSTANT);
+    }
+
+    public void testNormalizeBenchmark() {
+        TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+        JulianDay.onTimeZoneChanged();
+
+        // A sync's worth of rows, over and over: the same couple of weeks of dates
+        int calls = 100000;
+        long sum = 0;
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < calls; i++) {
+            sum += timeNormalize(FIRST_INSTANT + (i % 14) * 24 * HOUR_IN_MILLIS);
+        }
+        long timeMillis = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < calls; i++) {
+            sum -= JulianDay.normalize(FIRST_INSTANT + (i % 14) * 24 * HOUR_IN_MILLIS);
+        }
+        long julianDayMillis = SystemClock.elapsedRealtime() - start;
+
+        Log.i(LOG_TAG, calls + " normalizeDate calls: Time " + timeMillis + "ms, JulianDay " +
+                julianDayMillis + "ms");
+        assertEquals("Error: The two disagree about a date", 0, sum);
+    }
+
+    private void compareWithTime(String zoneId) {
+        compareWithTime(zoneId, FIRST_INSTANT);
+    }
+
+    private void compareWithTime(String zoneId, long firstInstant) {
+        TimeZone.setDefault(TimeZone.getTimeZone(zoneId));
+        JulianDay.onTimeZoneChanged();
+
+        Time time = new Time();
+        for (int i = 0; i < HOURS; i++) {
+            long instant = firstInstant + i * HOUR_IN_MILLIS;
+            time.set(instant);
+            int julianDay = Time.getJulianDay(instant, time.gmtoff);
+            assertEquals("Error: Wrong day for " + instant + " in " + zoneId,
+                    julianDay, JulianDay.fromMillis(instant));
+            assertEquals("Error: Wrong midnight for " + instant + " in " + zoneId,
+                    timeNormalize(instant), JulianDay.normalize(instant));
+            assertEquals("Error: A day's start isn't on it for " + instant + " in " + zoneId,
+                    julianDay, JulianDay.fromMillis(JulianDay.toMillis(julianDay)));
+        }
+    }
+
+    // What WeatherContract.normalizeDate was
+    private static long timeNormalize(long date) {
+        Time time = new Time();
+        time.set(date);
+        int julianDay = Time.getJulianDay(date, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+}
@@ -16,19 +16,32 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.ConditionEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.StatsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeeklyEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
 
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
@@ -56,6 +69,11 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                ArchiveEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
                 null,
@@ -179,7 +197,7 @@ public class TestProvider extends AndroidTestCase {
         // Fantastic.  Now that we have a location, add some weather!
         ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
 
-        long weatherRowId = db.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
+        long weatherRowId = TestUtilities.insertWeatherRow(db, weatherValues);
         assertTrue("Unable to Insert WeatherEntry into the Database", weatherRowId != -1);
 
         db.close();
@@ -512,4 +530,571 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        Upserting through the provider should only write rows that are new or different, keep the
+        _IDs of the rows it changes, and only tell observers when something was written.
+     */
+    public void testBulkInsertUpsert() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        Uri upsertUri = WeatherEntry.buildWeatherUpsertUri();
+
+        int insertCount = mContext.getContentResolver().bulkInsert(upsertUri,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals("Error: Upsert didn't insert every new row",
+                BULK_INSERT_RECORDS_TO_INSERT, insertCount);
+        long[] rowIds = getWeatherRowIds();
+
+        // The same forecast again is no change at all
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        int changedCount = mContext.getContentResolver().bulkInsert(upsertUri,
+                createBulkInsertWeatherValues(locationRowId));
+        weatherObserver.waitForNoNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        assertEquals("Error: Upsert rewrote unchanged rows", 0, changedCount);
+
+        // Change one day, and only that day should be written, in place
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[3].put(WeatherEntry.COLUMN_MAX_TEMP, 100);
+        weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        changedCount = mContext.getContentResolver().bulkInsert(upsertUri, changedValues);
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        assertEquals("Error: Upsert didn't write exactly the changed row", 1, changedCount);
+
+        long[] newRowIds = getWeatherRowIds();
+        assertEquals(rowIds.length, newRowIds.length);
+        for (int i = 0; i < rowIds.length; i++) {
+            assertEquals("Error: Upsert changed the _ID of row " + i, rowIds[i], newRowIds[i]);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        cursor.moveToFirst();
+        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext() ) {
+            TestUtilities.validateCurrentRecord("testBulkInsertUpsert.  Error validating WeatherEntry " + i,
+                    cursor, changedValues[i]);
+        }
+        cursor.close();
+    }
+
+    /*
+        A whole sync as one batch: a new location, its days upserted against the location's
+        back-referenced ID, and a delete.  It should all land, and all roll back if any of it fails.
+     */
+    public void testApplyBatch() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(0);
+        for (ContentValues values : weatherValues) {
+            values.remove(WeatherEntry.COLUMN_LOC_KEY);
+            operations.add(ContentProviderOperation.newUpdate(WeatherEntry.buildWeatherUpsertUri())
+                    .withValues(values)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        ContentProviderResult[] results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(operations.size(), results.length);
+        long locationRowId = ContentUris.parseId(results[0].uri);
+        for (int i = 1; i < results.length; i++) {
+            assertEquals("Error: Batch upsert " + i + " didn't write its row", 1, (int) results[i].count);
+        }
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(locationRowId)}, null);
+        assertEquals("Error: Batch didn't store the weather against the new location",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        // A batch that fails part way through leaves nothing behind
+        operations.clear();
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI).build());
+        operations.add(ContentProviderOperation.newDelete(LocationEntry.CONTENT_URI)
+                .withExpectedCount(0)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: Batch with a failed expectation was applied");
+        } catch (OperationApplicationException e) {
+            // expected
+        }
+        assertEquals("Error: Failed batch wasn't rolled back",
+                BULK_INSERT_RECORDS_TO_INSERT, getWeatherRowIds().length);
+    }
+
+    /*
+        Writing one location's weather should only reach the observers of that location, and
+        changing one day should only reach that day and the lists it's in.
+     */
+    public void testNotificationsScopedToRows() {
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, otherLocation);
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        TestUtilities.TestContentObserver locationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true, locationObserver);
+        TestUtilities.TestContentObserver otherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("94043"), true, otherObserver);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherUpsertUri(),
+                createBulkInsertWeatherValues(locationRowId));
+        locationObserver.waitForNotificationOrFail();
+        otherObserver.waitForNoNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherObserver);
+
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[3].put(WeatherEntry.COLUMN_MAX_TEMP, 100);
+        long changedDate = changedValues[3].getAsLong(WeatherEntry.COLUMN_DATE);
+        long otherDate = changedValues[4].getAsLong(WeatherEntry.COLUMN_DATE);
+        TestUtilities.TestContentObserver dayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, changedDate),
+                true, dayObserver);
+        TestUtilities.TestContentObserver otherDayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, otherDate),
+                true, otherDayObserver);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherUpsertUri(), changedValues);
+        dayObserver.waitForNotificationOrFail();
+        otherDayObserver.waitForNoNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(dayObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherDayObserver);
+    }
+
+    /*
+        The same query asked twice should give the same answer, and a write to the rows it covers
+        has to show up in the next answer even if the first one was kept around.
+     */
+    public void testRepeatedQueryReflectsWrites() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        long date = weatherValues[0].getAsLong(WeatherEntry.COLUMN_DATE);
+        Uri dayUri = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, date);
+        for (int i = 0; i < 2; i++) {
+            TestUtilities.validateCursor("testRepeatedQueryReflectsWrites.  Error on query " + i,
+                    mContext.getContentResolver().query(dayUri, null, null, null, null),
+                    weatherValues[0]);
+        }
+
+        weatherValues[0].put(WeatherEntry.COLUMN_MAX_TEMP, 100);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherUpsertUri(),
+                new ContentValues[]{weatherValues[0]});
+        TestUtilities.validateCursor("testRepeatedQueryReflectsWrites.  Error after the write",
+                mContext.getContentResolver().query(dayUri, null, null, null, null),
+                weatherValues[0]);
+
+        // A change to the location shows up too
+        ContentValues renamed = new ContentValues();
+        renamed.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Village");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, renamed,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)});
+        TestUtilities.validateCursor("testRepeatedQueryReflectsWrites.  Error after renaming",
+                mContext.getContentResolver().query(dayUri, null, null, null, null),
+                renamed);
+    }
+
+    /*
+        LocationIdCache has to follow the locations written through the provider.
+     */
+    public void testLocationIdCache() {
+        assertEquals("Error: Location found before it was added",
+                -1, LocationIdCache.getLocationId(mContext, TestUtilities.TEST_LOCATION));
+
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        assertEquals("Error: Location added through the provider wasn't found",
+                ContentUris.parseId(locationUri),
+                LocationIdCache.getLocationId(mContext, TestUtilities.TEST_LOCATION));
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        assertEquals("Error: Location found after it was deleted",
+                -1, LocationIdCache.getLocationId(mContext, TestUtilities.TEST_LOCATION));
+    }
+
+    /*
+        The summary should hold the same values as the rows it's summarizing, in date order,
+        and no more days than were asked for.
+     */
+    public void testWeatherSummary() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(ContentUris.parseId(locationUri));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        List<WeatherSummary> days = WeatherSummary.getForecast(mContext,
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE, 3);
+        assertEquals("Error: Summary didn't hold the days asked for", 3, days.size());
+        for (int i = 0; i < days.size(); i++) {
+            WeatherSummary day = days.get(i);
+            assertEquals(weatherValues[i].getAsLong(WeatherEntry.COLUMN_DATE).longValue(), day.date);
+            assertEquals(weatherValues[i].getAsInteger(WeatherEntry.COLUMN_WEATHER_ID).intValue(),
+                    day.weatherId);
+            assertEquals(weatherValues[i].getAsString(WeatherEntry.COLUMN_SHORT_DESC), day.description);
+            assertEquals(weatherValues[i].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP), day.high, 0.001);
+            assertEquals(weatherValues[i].getAsDouble(WeatherEntry.COLUMN_MIN_TEMP), day.low, 0.001);
+        }
+
+        assertNull("Error: Summary found a location that doesn't exist",
+                WeatherSummary.getDay(mContext, "nowhere", TestUtilities.TEST_DATE));
+    }
+
+    /*
+        Deleting past days through the archiving Uri should keep recent ones as they were, and
+        boil older ones down into weekly rows.
+     */
+    public void testArchive() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        long millisecondsInADay = 1000*60*60*24;
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        // A fortnight from a year ago, well past daily retention, and the last three days
+        long[] dates = new long[17];
+        for (int i = 0; i < 14; i++) {
+            dates[i] = today - (365 - i) * millisecondsInADay;
+        }
+        for (int i = 14; i < dates.length; i++) {
+            dates[i] = today - (dates.length - i) * millisecondsInADay;
+        }
+        ContentValues[] weatherValues = new ContentValues[dates.length];
+        for (int i = 0; i < dates.length; i++) {
+            weatherValues[i] = TestUtilities.createWeatherValues(locationRowId);
+            weatherValues[i].put(WeatherEntry.COLUMN_DATE, dates[i]);
+            weatherValues[i].put(WeatherEntry.COLUMN_MAX_TEMP, 70 + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        int archived = mContext.getContentResolver().delete(
+                WeatherEntry.buildWeatherArchivingUri(),
+                WeatherEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(today)});
+        assertEquals("Error: Past days weren't all taken out of the weather table",
+                dates.length, archived);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                ArchiveEntry.buildArchiveLocationWithRange(TestUtilities.TEST_LOCATION,
+                        today - 7 * millisecondsInADay, today),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: Recent days weren't kept in the archive", 3, cursor.getCount());
+        cursor.moveToFirst();
+        TestUtilities.validateCurrentRecord("testArchive.  Error validating archived day",
+                cursor, weatherValues[14]);
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeeklyEntry.buildWeeklyLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, WeeklyEntry.COLUMN_WEEK_START + " ASC");
+        int dayCount = 0;
+        double highest = Double.NEGATIVE_INFINITY;
+        while (cursor.moveToNext()) {
+            dayCount += cursor.getInt(cursor.getColumnIndex(WeeklyEntry.COLUMN_DAY_COUNT));
+            highest = Math.max(highest,
+                    cursor.getDouble(cursor.getColumnIndex(WeeklyEntry.COLUMN_MAX_TEMP)));
+        }
+        cursor.close();
+        assertEquals("Error: Old days weren't all downsampled into weeks", 14, dayCount);
+        assertEquals("Error: Weekly high doesn't match the days'", 83.0, highest, 0.001);
+    }
+
+    /*
+        Weeks are worked out in the device's time zone: east of UTC a Monday's local midnight is
+        still Sunday in UTC, and it mustn't land in the week before.
+     */
+    public void testArchiveWeeksInLocalZone() {
+        TimeZone defaultZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+        JulianDay.onTimeZoneChanged();
+        try {
+            Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                    TestUtilities.createNorthPoleLocationValues());
+            long locationRowId = ContentUris.parseId(locationUri);
+
+            // A Sunday and the Monday after it, a year ago so both get downsampled
+            int monday = WeatherArchive.getWeekStartDay(JulianDay.today() - 365);
+            int sunday = monday - 1;
+            ContentValues[] weatherValues = new ContentValues[2];
+            weatherValues[0] = TestUtilities.createWeatherValues(locationRowId);
+            weatherValues[0].put(WeatherEntry.COLUMN_DATE, JulianDay.toMillis(sunday));
+            weatherValues[1] = TestUtilities.createWeatherValues(locationRowId);
+            weatherValues[1].put(WeatherEntry.COLUMN_DATE, JulianDay.toMillis(monday));
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+            mContext.getContentResolver().delete(WeatherEntry.buildWeatherArchivingUri(),
+                    WeatherEntry.COLUMN_DATE + " < ?",
+                    new String[]{Long.toString(JulianDay.toMillis(JulianDay.today()))});
+
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeeklyEntry.buildWeeklyLocation(TestUtilities.TEST_LOCATION),
+                    new String[]{WeeklyEntry.COLUMN_WEEK_START, WeeklyEntry.COLUMN_DAY_COUNT},
+                    null, null, WeeklyEntry.COLUMN_WEEK_START + " ASC");
+            assertEquals("Error: The Sunday and the Monday should be in different weeks",
+                    2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Error: The Sunday is in the wrong week",
+                    JulianDay.toMillis(monday - 7), cursor.getLong(0));
+            assertEquals(1, cursor.getInt(1));
+            cursor.moveToNext();
+            assertEquals("Error: The Monday is in the wrong week",
+                    JulianDay.toMillis(monday), cursor.getLong(0));
+            assertEquals(1, cursor.getInt(1));
+            cursor.close();
+        } finally {
+            TimeZone.setDefault(defaultZone);
+            JulianDay.onTimeZoneChanged();
+        }
+    }
+
+    /*
+        The stats Uri should come back with one row of aggregates over just the days in range.
+     */
+    public void testWeatherStats() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(ContentUris.parseId(locationUri));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        // The middle of the days, leaving the first two and the last two out
+        long start = weatherValues[2].getAsLong(WeatherEntry.COLUMN_DATE);
+        long end = weatherValues[BULK_INSERT_RECORDS_TO_INSERT - 2].getAsLong(WeatherEntry.COLUMN_DATE);
+        int days = BULK_INSERT_RECORDS_TO_INSERT - 4;
+        double minTemp = Double.MAX_VALUE;
+        double maxTemp = -Double.MAX_VALUE;
+        double humidityTotal = 0;
+        for (int i = 2; i < 2 + days; i++) {
+            minTemp = Math.min(minTemp, weatherValues[i].getAsDouble(WeatherEntry.COLUMN_MIN_TEMP));
+            maxTemp = Math.max(maxTemp, weatherValues[i].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP));
+            humidityTotal += weatherValues[i].getAsDouble(WeatherEntry.COLUMN_HUMIDITY);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                StatsEntry.buildStatsUri(TestUtilities.TEST_LOCATION, start, end),
+                new String[]{StatsEntry.COLUMN_DAY_COUNT, StatsEntry.COLUMN_MIN_TEMP,
+                        StatsEntry.COLUMN_MAX_TEMP, StatsEntry.COLUMN_AVG_HUMIDITY},
+                null, null, null);
+        assertEquals("Error: Stats should be a single row", 1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Error: Stats counted the wrong days", days, cursor.getInt(0));
+        assertEquals(minTemp, cursor.getDouble(1), 0.001);
+        assertEquals(maxTemp, cursor.getDouble(2), 0.001);
+        assertEquals(humidityTotal / days, cursor.getDouble(3), 0.001);
+        cursor.close();
+    }
+
+    // Each condition's description is stored once, and every day with that condition reads it
+    // back through the provider
+    public void testConditionDictionary() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(ContentUris.parseId(locationUri));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        assertEquals("Error: Every day has the same condition, so it should be stored once",
+                1, DatabaseUtils.queryNumEntries(db, ConditionEntry.TABLE_NAME));
+        db.close();
+
+        // A new description for the condition is a change to every day with it
+        ContentValues renamed = new ContentValues(weatherValues[0]);
+        renamed.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true, weatherObserver);
+        int rowsUpdated = mContext.getContentResolver().update(
+                WeatherEntry.buildWeatherUpsertUri(), renamed, null, null);
+        assertEquals("Error: A new description should count as a change", 1, rowsUpdated);
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                new String[]{WeatherEntry.COLUMN_WEATHER_ID, WeatherEntry.COLUMN_SHORT_DESC},
+                null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        while (cursor.moveToNext()) {
+            assertEquals(weatherValues[0].getAsInteger(WeatherEntry.COLUMN_WEATHER_ID).intValue(),
+                    cursor.getInt(0));
+            assertEquals("Error: A day didn't get the condition's new description",
+                    "Meteors", cursor.getString(1));
+        }
+        cursor.close();
+    }
+
+    // Measurements are stored in tenths, read back as they were written, and as the stored
+    // integers for PARAM_FIXED_POINT
+    public void testFixedPointMeasurements() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, -12.3);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        Uri dayUri = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        String[] projection = {WeatherEntry.COLUMN_MIN_TEMP, WeatherEntry.COLUMN_HUMIDITY};
+        Cursor cursor = mContext.getContentResolver().query(dayUri, projection, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("-12.3", cursor.getString(0));
+        assertEquals(weatherValues.getAsString(WeatherEntry.COLUMN_HUMIDITY), cursor.getString(1));
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.buildFixedPointUri(dayUri),
+                projection, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("-123", cursor.getString(0));
+        assertEquals(Long.toString(FixedPoint.encode(
+                weatherValues.getAsDouble(WeatherEntry.COLUMN_HUMIDITY))), cursor.getString(1));
+        cursor.close();
+
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, "warm");
+        try {
+            mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+            fail("Error: A temperature that isn't a number was stored");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    // Updates and deletes pick rows by measurements as they read back, not in tenths
+    public void testMeasurementSelections() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        // Highs run 75 to 84
+        ContentValues updateValues = new ContentValues();
+        updateValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        int updated = mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, updateValues,
+                WeatherEntry.COLUMN_MAX_TEMP + " > ?", new String[]{"80"});
+        assertEquals("Error: Updated the wrong rows by high", 4, updated);
+
+        // Lows run 65 down to 56
+        int deleted = mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_MIN_TEMP + " < ?", new String[]{"60"});
+        assertEquals("Error: Deleted the wrong rows by low", 4, deleted);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP}, null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - deleted, cursor.getCount());
+        cursor.close();
+    }
+
+    // Pages pick up after the last date of the page before, and a paged cursor reads the same
+    // days as one query for all of them, in either direction
+    public void testPagedWeatherQuery() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(ContentUris.parseId(locationUri));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        Uri weatherUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        String[] projection = {WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MAX_TEMP};
+        int pageSize = 4;
+        int read = 0;
+        Cursor page = mContext.getContentResolver().query(
+                WeatherEntry.buildPageUri(weatherUri, pageSize), projection, null, null, null);
+        while (page.getCount() > 0) {
+            assertTrue("Error: A page held more than its limit", page.getCount() <= pageSize);
+            long lastDate = 0;
+            while (page.moveToNext()) {
+                lastDate = page.getLong(0);
+                assertEquals("Error: A page skipped or repeated a day",
+                        weatherValues[read++].getAsLong(WeatherEntry.COLUMN_DATE).longValue(),
+                        lastDate);
+            }
+            page.close();
+            page = mContext.getContentResolver().query(
+                    WeatherEntry.buildPageUri(weatherUri, lastDate, pageSize),
+                    projection, null, null, null);
+        }
+        page.close();
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, read);
+
+        Cursor paged = PagedWeatherCursor.query(mContext.getContentResolver(), weatherUri,
+                projection, WeatherEntry.COLUMN_DATE, BULK_INSERT_RECORDS_TO_INSERT, 3);
+        Cursor whole = mContext.getContentResolver().query(weatherUri, projection, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(whole.getCount(), paged.getCount());
+        for (int i = whole.getCount() - 1; i >= 0; i--) {
+            assertTrue(paged.moveToPosition(i));
+            whole.moveToPosition(i);
+            ContentValues expected = new ContentValues();
+            DatabaseUtils.cursorRowToContentValues(whole, expected);
+            TestUtilities.validateCurrentRecord("Error: The paged cursor read the wrong day",
+                    paged, expected);
+        }
+        whole.close();
+        paged.close();
+    }
+
+    // Each call is put down to its Uri and operation, with the rows it wrote
+    public void testProviderMetrics() {
+        Bundle reset = new Bundle();
+        reset.putBoolean(WeatherContract.EXTRA_RESET, true);
+        mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_GET_METRICS, null, reset);
+
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(ContentUris.parseId(locationUri)));
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        cursor.close();
+
+        String metrics = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_GET_METRICS, null, null)
+                .getString(WeatherContract.EXTRA_METRICS);
+        assertTrue("Error: No insert in " + metrics,
+                metrics.contains("location insert count=1 rows=1 "));
+        assertTrue("Error: No bulkInsert in " + metrics,
+                metrics.contains("weather bulkInsert count=1 rows=" + BULK_INSERT_RECORDS_TO_INSERT + " "));
+        assertTrue("Error: No query in " + metrics,
+                metrics.contains("weather/* query count=1 avg="));
+
+        assertEquals(0, ProviderMetrics.getBucket(999999));
+        assertEquals(1, ProviderMetrics.getBucket(1000000));
+        assertEquals(3, ProviderMetrics.getBucket(7000000));
+        assertEquals(ProviderMetrics.BUCKET_COUNT - 1, ProviderMetrics.getBucket(60000000000L));
+    }
+
+    private long[] getWeatherRowIds() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        long[] rowIds = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            rowIds[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return rowIds;
+    }
 }
@@ -77,6 +77,32 @@ public class TestUtilities extends AndroidTestCase {
         return weatherValues;
     }
 
+    /*
+        The weather table only holds the weather id; the short description is in the condition
+        dictionary.  This splits values like createWeatherValues' between the two, for tests that
+        write to the database directly rather than through the provider.
+     */
+    static long insertWeatherRow(SQLiteDatabase db, ContentValues weatherValues) {
+        ContentValues conditionValues = new ContentValues();
+        conditionValues.put(WeatherContract.ConditionEntry.COLUMN_WEATHER_ID,
+                weatherValues.getAsLong(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+        conditionValues.put(WeatherContract.ConditionEntry.COLUMN_SHORT_DESC,
+                weatherValues.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC));
+        db.insertWithOnConflict(WeatherContract.ConditionEntry.TABLE_NAME, null, conditionValues,
+                SQLiteDatabase.CONFLICT_REPLACE);
+
+        return db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                createWeatherTableValues(weatherValues));
+    }
+
+    // The values as the weather table itself stores them: no description, and the
+    // measurements in tenths
+    static ContentValues createWeatherTableValues(ContentValues weatherValues) {
+        ContentValues tableValues = new ContentValues(weatherValues);
+        tableValues.remove(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+        return FixedPoint.encode(tableValues);
+    }
+
     /*
         Students: You can uncomment this helper function once you have finished creating the
         LocationEntry part of the WeatherContract.
@@ -158,6 +184,18 @@ public class TestUtilities extends AndroidTestCase {
             }.run();
             mHT.quit();
         }
+
+        public void waitForNoNotificationOrFail() {
+            // There's no event to poll for here, so give a notification the same sort of time to
+            // turn up that waitForNotificationOrFail would, and make sure it didn't.
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mHT.quit();
+            assertFalse("Error: Content change notified when nothing changed", mContentChanged);
+        }
     }
 
     static TestContentObserver getTestContentObserver() {
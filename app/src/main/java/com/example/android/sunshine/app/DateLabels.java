@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.util.SparseArray;
+
+import com.example.android.sunshine.app.data.JulianDay;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The labels Utility shows for a day ("Today, June 24", "Tomorrow", "Wednesday", "Mon Jun 03"),
+ * worked out once per julian day and kept, so binding the same couple of weeks over and over
+ * is just a lookup.  Every label is the same for any time during its day.
+ *
+ * What a day is called depends on which day is today, the locale and the time zone, so all of
+ * them are thrown away when any of those change, which is noticed on the next call.  The zone
+ * is JulianDay's, so the labels always number days the same way it does.
+ */
+class DateLabels {
+
+    // By day
+    private static final int LONG_TODAY = 0;
+    private static final int DAY_NAME = 1;
+    private static final int SHORT_DATE = 2;
+    private static final int FULL_FRIENDLY = 3;
+    private static final int MONTH_DAY = 4;
+    private static final int LABEL_COUNT = 5;
+
+    // A forecast and a good way back into the history
+    private static final int MAX_DAYS = 64;
+
+    // What the labels were made for
+    private static int sToday;
+    private static Locale sLocale;
+    private static TimeZone sZone;
+
+    // Null when the labels have to be started over
+    private static SimpleDateFormat sShortDateFormat;
+    private static SimpleDateFormat sDayNameFormat;
+    private static SimpleDateFormat sMonthDayFormat;
+    private static String sTodayLabel;
+    private static String sTomorrowLabel;
+    private static String sFullFriendlyFormat;
+
+    // By julian day
+    private static final SparseArray<String[]> sLabels = new SparseArray<String[]>();
+
+    private DateLabels() {
+    }
+
+    static synchronized String getFriendlyDayString(Context context, long dateInMillis,
+                                                    boolean displayLongToday) {
+        // The day string for forecast uses the following logic:
+        // For today: "Today, June 8"
+        // For tomorrow:  "Tomorrow"
+        // For the next 5 days: "Wednesday" (just the day name)
+        // For all days after that: "Mon Jun 8"
+        int julianDay = JulianDay.fromMillis(dateInMillis);
+        String[] labels = getLabels(context, julianDay);
+
+        if (displayLongToday && julianDay == sToday) {
+            if (labels[LONG_TODAY] == null) {
+                labels[LONG_TODAY] = String.format(sFullFriendlyFormat, sTodayLabel,
+                        getMonthDay(labels, dateInMillis));
+            }
+            return labels[LONG_TODAY];
+        } else if (julianDay < sToday + 7) {
+            return getDayName(labels, julianDay, dateInMillis);
+        } else {
+            if (labels[SHORT_DATE] == null) {
+                labels[SHORT_DATE] = sShortDateFormat.format(dateInMillis);
+            }
+            return labels[SHORT_DATE];
+        }
+    }
+
+    static synchronized String getFullFriendlyDayString(Context context, long dateInMillis) {
+        int julianDay = JulianDay.fromMillis(dateInMillis);
+        String[] labels = getLabels(context, julianDay);
+        if (labels[FULL_FRIENDLY] == null) {
+            labels[FULL_FRIENDLY] = String.format(sFullFriendlyFormat,
+                    getDayName(labels, julianDay, dateInMillis), getMonthDay(labels, dateInMillis));
+        }
+        return labels[FULL_FRIENDLY];
+    }
+
+    static synchronized String getDayName(Context context, long dateInMillis) {
+        int julianDay = JulianDay.fromMillis(dateInMillis);
+        return getDayName(getLabels(context, julianDay), julianDay, dateInMillis);
+    }
+
+    static synchronized String getFormattedMonthDay(Context context, long dateInMillis) {
+        int julianDay = JulianDay.fromMillis(dateInMillis);
+        return getMonthDay(getLabels(context, julianDay), dateInMillis);
+    }
+
+    private static String getDayName(String[] labels, int julianDay, long dateInMillis) {
+        if (labels[DAY_NAME] == null) {
+            if (julianDay == sToday) {
+                labels[DAY_NAME] = sTodayLabel;
+            } else if (julianDay == sToday + 1) {
+                labels[DAY_NAME] = sTomorrowLabel;
+            } else {
+                // Otherwise, the format is just the day of the week (e.g "Wednesday")
+                labels[DAY_NAME] = sDayNameFormat.format(dateInMillis);
+            }
+        }
+        return labels[DAY_NAME];
+    }
+
+    private static String getMonthDay(String[] labels, long dateInMillis) {
+        if (labels[MONTH_DAY] == null) {
+            labels[MONTH_DAY] = sMonthDayFormat.format(dateInMillis);
+        }
+        return labels[MONTH_DAY];
+    }
+
+    // The day's labels, after starting over if today, the locale or the zone has changed
+    private static String[] getLabels(Context context, int julianDay) {
+        int today = JulianDay.today();
+        Locale locale = Locale.getDefault();
+        // The same object until the zone changes
+        TimeZone zone = JulianDay.getTimeZone();
+        if (sShortDateFormat == null || today != sToday || !locale.equals(sLocale) ||
+                zone != sZone) {
+            sToday = today;
+            sLocale = locale;
+            sZone = zone;
+            sShortDateFormat = new SimpleDateFormat("EEE MMM dd");
+            sShortDateFormat.setTimeZone(zone);
+            sDayNameFormat = new SimpleDateFormat("EEEE");
+            sDayNameFormat.setTimeZone(zone);
+            sMonthDayFormat = new SimpleDateFormat("MMMM dd");
+            sMonthDayFormat.setTimeZone(zone);
+            sTodayLabel = context.getString(R.string.today);
+            sTomorrowLabel = context.getString(R.string.tomorrow);
+            sFullFriendlyFormat = context.getString(R.string.format_full_friendly_date);
+            sLabels.clear();
+        }
+
+        String[] labels = sLabels.get(julianDay);
+        if (labels == null) {
+            if (sLabels.size() >= MAX_DAYS) {
+                sLabels.clear();
+            }
+            labels = new String[LABEL_COUNT];
+            sLabels.put(julianDay, labels);
+        }
+        return labels;
+    }
+}
@@ -30,6 +30,7 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.data.PagedWeatherCursor;
 import com.example.android.sunshine.app.data.WeatherContract;
 
 /**
@@ -50,6 +51,15 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     final private View mEmptyView;
     final private ItemChoiceManager mICM;
 
+    // Rows bound blank because their page hadn't been read yet get bound again once it has
+    final private PagedWeatherCursor.OnRowsLoadedListener mRowsLoadedListener =
+            new PagedWeatherCursor.OnRowsLoadedListener() {
+                @Override
+                public void onRowsLoaded(int firstPosition, int rowCount) {
+                    notifyItemRangeChanged(firstPosition, rowCount);
+                }
+            };
+
     /**
      * Cache of the children views for a forecast list item.
      */
@@ -73,7 +83,9 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
+            if (!mCursor.moveToPosition(adapterPosition)) {
+                return;
+            }
             int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
             mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
             mICM.onClick(this);
@@ -124,7 +136,13 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
+        if (!mCursor.moveToPosition(position)) {
+            // Its page is still being read, or the days changed under the cursor and the
+            // loader's starting over.  Either way the holder may have another day in it.
+            clearViewHolder(forecastAdapterViewHolder);
+            mICM.onBindViewHolder(forecastAdapterViewHolder, position);
+            return;
+        }
         int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
         int defaultImage;
         boolean useLongToday;
@@ -185,6 +203,18 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
     }
 
+    private static void clearViewHolder(ForecastAdapterViewHolder viewHolder) {
+        Glide.clear(viewHolder.mIconView);
+        viewHolder.mIconView.setImageDrawable(null);
+        viewHolder.mDateView.setText(null);
+        viewHolder.mDescriptionView.setText(null);
+        viewHolder.mDescriptionView.setContentDescription(null);
+        viewHolder.mHighTempView.setText(null);
+        viewHolder.mHighTempView.setContentDescription(null);
+        viewHolder.mLowTempView.setText(null);
+        viewHolder.mLowTempView.setContentDescription(null);
+    }
+
     public void onRestoreInstanceState(Bundle savedInstanceState) {
         mICM.onRestoreInstanceState(savedInstanceState);
     }
@@ -213,7 +243,13 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     }
 
     public void swapCursor(Cursor newCursor) {
+        if (mCursor instanceof PagedWeatherCursor) {
+            ((PagedWeatherCursor) mCursor).setOnRowsLoadedListener(null);
+        }
         mCursor = newCursor;
+        if (newCursor instanceof PagedWeatherCursor) {
+            ((PagedWeatherCursor) newCursor).setOnRowsLoadedListener(mRowsLoadedListener);
+        }
         notifyDataSetChanged();
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.example.android.sunshine.app.data.PagedWeatherCursor;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Loads a location's forecast from a date on, the way a CursorLoader would, except the cursor
+ * it hands back is a PagedWeatherCursor: only the first page is read here, and the rest are
+ * read as the ForecastAdapter binds its way down to them.  However far the forecast goes, only
+ * a few pages of it are held at once.
+ *
+ * The position of the day to select is worked out here too, since finding it in the cursor
+ * would mean reading every page before it on the main thread.  It comes back in the cursor's
+ * extras as EXTRA_SELECTED_POSITION, or -1 if there's no such day.
+ */
+public class PagedForecastLoader extends AsyncTaskLoader<Cursor> {
+
+    // A screenful and a bit
+    static final int PAGE_SIZE = 20;
+
+    static final String EXTRA_SELECTED_POSITION = "selected_position";
+
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+
+    private final String mLocationSetting;
+    private final long mStartDate;
+    private final long mSelectedDate;
+    private final String[] mProjection;
+
+    private Cursor mCursor;
+
+    /**
+     * @param selectedDate the day to find the position of, or -1
+     */
+    public PagedForecastLoader(Context context, String locationSetting, long startDate,
+                               long selectedDate, String[] projection) {
+        super(context);
+        mLocationSetting = locationSetting;
+        mStartDate = startDate;
+        mSelectedDate = selectedDate;
+        mProjection = projection;
+    }
+
+    /* Runs on a worker thread */
+    @Override
+    public Cursor loadInBackground() {
+        ContentResolver resolver = getContext().getContentResolver();
+
+        int count = getDayCount(resolver,
+                WeatherContract.StatsEntry.buildStatsUri(mLocationSetting, mStartDate));
+
+        Uri weatherForLocationUri =
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        mLocationSetting, mStartDate);
+        PagedWeatherCursor cursor = PagedWeatherCursor.query(resolver, weatherForLocationUri,
+                mProjection, WeatherContract.WeatherEntry.COLUMN_DATE, count, PAGE_SIZE);
+        if (cursor != null) {
+            Bundle extras = new Bundle();
+            extras.putInt(EXTRA_SELECTED_POSITION,
+                    getSelectedPosition(resolver, mLocationSetting, mStartDate, mSelectedDate));
+            cursor.setExtras(extras);
+            cursor.registerContentObserver(mObserver);
+        }
+        return cursor;
+    }
+
+    // The days from the start date to the selected one, if it's there at all
+    static int getSelectedPosition(ContentResolver resolver, String locationSetting,
+                                   long startDate, long selectedDate) {
+        if (selectedDate == -1 || WeatherContract.normalizeDate(selectedDate) <
+                WeatherContract.normalizeDate(startDate)) {
+            // Nothing to find, or before the list starts
+            return -1;
+        }
+        Cursor day = resolver.query(WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        locationSetting, selectedDate),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        if (day == null) {
+            return -1;
+        }
+        try {
+            if (day.getCount() == 0) {
+                return -1;
+            }
+        } finally {
+            day.close();
+        }
+        return getDayCount(resolver, WeatherContract.StatsEntry.buildStatsUri(
+                locationSetting, startDate, selectedDate));
+    }
+
+    // The stats already know how many days there are, and are usually cached
+    private static int getDayCount(ContentResolver resolver, Uri statsUri) {
+        Cursor stats = resolver.query(statsUri,
+                new String[]{WeatherContract.StatsEntry.COLUMN_DAY_COUNT}, null, null, null);
+        if (stats == null) {
+            return 0;
+        }
+        try {
+            return stats.moveToFirst() ? stats.getInt(0) : 0;
+        } finally {
+            stats.close();
+        }
+    }
+
+    /* Runs on the UI thread */
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (isReset()) {
+            // An async query came in while the loader is stopped
+            if (cursor != null) {
+                cursor.close();
+            }
+            return;
+        }
+        Cursor oldCursor = mCursor;
+        mCursor = cursor;
+
+        if (isStarted()) {
+            super.deliverResult(cursor);
+        }
+
+        if (oldCursor != null && oldCursor != cursor && !oldCursor.isClosed()) {
+            oldCursor.close();
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mCursor != null) {
+            deliverResult(mCursor);
+        }
+        if (takeContentChanged() || mCursor == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    public void onCanceled(Cursor cursor) {
+        if (cursor != null && !cursor.isClosed()) {
+            cursor.close();
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        // Ensure the loader is stopped
+        onStopLoading();
+
+        if (mCursor != null && !mCursor.isClosed()) {
+            mCursor.close();
+        }
+        mCursor = null;
+    }
+}
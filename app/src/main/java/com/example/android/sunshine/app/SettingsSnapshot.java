@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * The settings Utility hands out while binding rows, drawing widgets and syncing: the location,
+ * the other locations, the units and the art pack.  They're read from SharedPreferences once,
+ * into a snapshot that never changes, and read again only when one of them does, so the hot
+ * paths just read fields.
+ *
+ * A single listener on the default SharedPreferences swaps in a new snapshot.  SharedPreferences
+ * runs its listeners on the main thread, so a change made from another thread shows up here a
+ * moment after it's committed.
+ */
+class SettingsSnapshot {
+
+    final String preferredLocation;
+    // The preferred location first, then the other locations, without repeats.  Can't be changed.
+    final List<String> syncedLocations;
+    final boolean metric;
+    // The art pack's URL format, see R.string.pref_art_pack_sunshine
+    final String artPack;
+    final boolean usingLocalGraphics;
+
+    private static volatile SettingsSnapshot sCurrent;
+    // Held here since SharedPreferences only keeps a weak reference to it
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    private SettingsSnapshot(Context context, SharedPreferences prefs) {
+        preferredLocation = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+
+        String otherLocations =
+                prefs.getString(context.getString(R.string.pref_other_locations_key), "");
+        LinkedHashSet<String> locations = new LinkedHashSet<String>();
+        locations.add(preferredLocation);
+        for (String location : otherLocations.split(";")) {
+            location = location.trim();
+            if (location.length() > 0) {
+                locations.add(location);
+            }
+        }
+        syncedLocations = Collections.unmodifiableList(new ArrayList<String>(locations));
+
+        String unitsMetric = context.getString(R.string.pref_units_metric);
+        metric = prefs.getString(context.getString(R.string.pref_units_key), unitsMetric)
+                .equals(unitsMetric);
+
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        artPack = prefs.getString(context.getString(R.string.pref_art_pack_key), sunshineArtPack);
+        usingLocalGraphics = artPack.equals(sunshineArtPack);
+    }
+
+    static SettingsSnapshot get(Context context) {
+        SettingsSnapshot current = sCurrent;
+        if (current != null) {
+            return current;
+        }
+        synchronized (SettingsSnapshot.class) {
+            if (sCurrent == null) {
+                // The listener outlives whatever context asked first
+                final Context appContext = context.getApplicationContext();
+                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+                sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                        if (isSnapshotKey(appContext, key)) {
+                            sCurrent = new SettingsSnapshot(appContext, prefs);
+                        }
+                    }
+                };
+                prefs.registerOnSharedPreferenceChangeListener(sListener);
+                sCurrent = new SettingsSnapshot(appContext, prefs);
+            }
+            return sCurrent;
+        }
+    }
+
+    private static boolean isSnapshotKey(Context context, String key) {
+        return context.getString(R.string.pref_location_key).equals(key) ||
+                context.getString(R.string.pref_other_locations_key).equals(key) ||
+                context.getString(R.string.pref_units_key).equals(key) ||
+                context.getString(R.string.pref_art_pack_key).equals(key);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import java.util.Locale;
+
+/**
+ * What Utility shows for each OpenWeatherMap condition id, looked up in tables filled in once
+ * instead of working through a chain of ranges for every row bound.  The ids are grouped the way
+ * the weather code data groups them, at
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ *
+ * The art pack URLs are formatted once per art pack, and formatted again only after the
+ * art pack preference changes, which SettingsSnapshot keeps track of.
+ */
+class WeatherConditions {
+
+    // Every id OpenWeatherMap has is below this
+    private static final int MAX_ID = 1000;
+
+    // The groups of ids that share an icon, art and image.  Dust has the storm's icon and art
+    // but an image of its own.
+    private static final int NONE = 0;
+    private static final int STORM = 1;
+    private static final int LIGHT_RAIN = 2;
+    private static final int RAIN = 3;
+    private static final int SNOW = 4;
+    private static final int FOG = 5;
+    private static final int CLEAR = 6;
+    private static final int LIGHT_CLOUDS = 7;
+    private static final int CLOUDS = 8;
+    private static final int DUST = 9;
+
+    // By group
+    private static final int[] ICONS = {-1, R.drawable.ic_storm, R.drawable.ic_light_rain,
+            R.drawable.ic_rain, R.drawable.ic_snow, R.drawable.ic_fog, R.drawable.ic_clear,
+            R.drawable.ic_light_clouds, R.drawable.ic_cloudy, R.drawable.ic_storm};
+    private static final int[] ART = {-1, R.drawable.art_storm, R.drawable.art_light_rain,
+            R.drawable.art_rain, R.drawable.art_snow, R.drawable.art_fog, R.drawable.art_clear,
+            R.drawable.art_light_clouds, R.drawable.art_clouds, R.drawable.art_storm};
+    // What the art packs call each group's art
+    private static final String[] ART_NAMES = {null, "storm", "light_rain", "rain", "snow", "fog",
+            "clear", "light_clouds", "clouds", "storm"};
+    private static final String[] IMAGE_URLS = {null,
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg"};
+
+    // By id
+    private static final byte[] sGroups = new byte[MAX_ID];
+    private static final int[] sLabels = new int[MAX_ID];
+
+    static {
+        // In the order they used to be checked, since the first range an id is in wins: 761 is
+        // fog, not storm
+        group(200, 232, STORM);
+        group(300, 321, LIGHT_RAIN);
+        group(500, 504, RAIN);
+        group(511, 511, SNOW);
+        group(520, 531, RAIN);
+        group(600, 622, SNOW);
+        group(701, 761, FOG);
+        group(761, 761, STORM);
+        group(781, 781, DUST);
+        group(800, 800, CLEAR);
+        group(801, 801, LIGHT_CLOUDS);
+        group(802, 804, CLOUDS);
+
+        for (int id = 200; id <= 232; id++) {
+            sLabels[id] = R.string.condition_2xx;
+        }
+        for (int id = 300; id <= 321; id++) {
+            sLabels[id] = R.string.condition_3xx;
+        }
+        sLabels[500] = R.string.condition_500;
+        sLabels[501] = R.string.condition_501;
+        sLabels[502] = R.string.condition_502;
+        sLabels[503] = R.string.condition_503;
+        sLabels[504] = R.string.condition_504;
+        sLabels[511] = R.string.condition_511;
+        sLabels[520] = R.string.condition_520;
+        sLabels[531] = R.string.condition_531;
+        sLabels[600] = R.string.condition_600;
+        sLabels[601] = R.string.condition_601;
+        sLabels[602] = R.string.condition_602;
+        sLabels[611] = R.string.condition_611;
+        sLabels[612] = R.string.condition_612;
+        sLabels[615] = R.string.condition_615;
+        sLabels[616] = R.string.condition_616;
+        sLabels[620] = R.string.condition_620;
+        sLabels[621] = R.string.condition_621;
+        sLabels[622] = R.string.condition_622;
+        sLabels[701] = R.string.condition_701;
+        sLabels[711] = R.string.condition_711;
+        sLabels[721] = R.string.condition_721;
+        sLabels[731] = R.string.condition_731;
+        sLabels[741] = R.string.condition_741;
+        sLabels[751] = R.string.condition_751;
+        sLabels[761] = R.string.condition_761;
+        sLabels[762] = R.string.condition_762;
+        sLabels[771] = R.string.condition_771;
+        sLabels[781] = R.string.condition_781;
+        sLabels[800] = R.string.condition_800;
+        sLabels[801] = R.string.condition_801;
+        sLabels[802] = R.string.condition_802;
+        sLabels[803] = R.string.condition_803;
+        sLabels[804] = R.string.condition_804;
+        sLabels[900] = R.string.condition_900;
+        sLabels[901] = R.string.condition_901;
+        sLabels[902] = R.string.condition_902;
+        sLabels[903] = R.string.condition_903;
+        sLabels[904] = R.string.condition_904;
+        sLabels[905] = R.string.condition_905;
+        sLabels[906] = R.string.condition_906;
+        sLabels[951] = R.string.condition_951;
+        sLabels[952] = R.string.condition_952;
+        sLabels[953] = R.string.condition_953;
+        sLabels[954] = R.string.condition_954;
+        sLabels[955] = R.string.condition_955;
+        sLabels[956] = R.string.condition_956;
+        sLabels[957] = R.string.condition_957;
+        sLabels[958] = R.string.condition_958;
+        sLabels[959] = R.string.condition_959;
+        sLabels[960] = R.string.condition_960;
+        sLabels[961] = R.string.condition_961;
+        sLabels[962] = R.string.condition_962;
+    }
+
+    // The art pack's URLs by group, and the art pack they were formatted from.  Null until
+    // they're first asked for.
+    private static String[] sArtUrls;
+    private static String sArtPack;
+
+    private WeatherConditions() {
+    }
+
+    private static void group(int firstId, int lastId, int group) {
+        for (int id = firstId; id <= lastId; id++) {
+            if (sGroups[id] == NONE) {
+                sGroups[id] = (byte) group;
+            }
+        }
+    }
+
+    private static int getGroup(int weatherId) {
+        return weatherId >= 0 && weatherId < MAX_ID ? sGroups[weatherId] : NONE;
+    }
+
+    static int getIcon(int weatherId) {
+        return ICONS[getGroup(weatherId)];
+    }
+
+    static int getArt(int weatherId) {
+        return ART[getGroup(weatherId)];
+    }
+
+    static String getImageUrl(int weatherId) {
+        return IMAGE_URLS[getGroup(weatherId)];
+    }
+
+    // 0 if there's no label for the id
+    static int getLabel(int weatherId) {
+        return weatherId >= 0 && weatherId < MAX_ID ? sLabels[weatherId] : 0;
+    }
+
+    static synchronized String getArtUrl(Context context, int weatherId) {
+        int group = getGroup(weatherId);
+        if (group == NONE) {
+            return null;
+        }
+        // The same string as last time unless the preference has changed since
+        String artPack = SettingsSnapshot.get(context).artPack;
+        if (sArtUrls == null || !artPack.equals(sArtPack)) {
+            String[] artUrls = new String[ART_NAMES.length];
+            for (int i = STORM; i < ART_NAMES.length; i++) {
+                artUrls[i] = String.format(Locale.US, artPack, ART_NAMES[i]);
+            }
+            sArtUrls = artUrls;
+            sArtPack = artPack;
+        }
+        return sArtUrls[group];
+    }
+}
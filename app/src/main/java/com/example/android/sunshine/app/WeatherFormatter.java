@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Formats temperatures and winds the way Utility always has, with R.string.format_temperature
+ * and format_wind_kmh/mph, but only once for each value that can come out.  Both show whole
+ * numbers, so there's only a few hundred temperatures and a few thousand winds worth keeping;
+ * each one is formatted the first time it's asked for and handed back as the same string after
+ * that, so binding a row doesn't make any garbage.
+ *
+ * The strings are kept for the locale they were formatted in and thrown away when it changes.
+ * Anything outside the tables, or a negative temperature that rounds to zero (String.format
+ * keeps the sign on "-0"), is formatted every time, like before.
+ */
+class WeatherFormatter {
+
+    // Colder and hotter than anywhere has been, in either unit
+    static final int MIN_TEMPERATURE = -150;
+    static final int MAX_TEMPERATURE = 200;
+    // Faster than the fastest gust on record, in km/h
+    static final int MAX_WIND_SPEED = 500;
+
+    private static final float KMH_TO_MPH = .621371192237334f;
+
+    private static final String[] DIRECTIONS =
+            {"N", "NE", "E", "SE", "S", "SW", "W", "NW", "Unknown"};
+    private static final int UNKNOWN_DIRECTION = 8;
+
+    // What everything below was formatted for
+    private static Locale sLocale;
+
+    private static String sTemperatureFormat;
+    // By temperature, from MIN_TEMPERATURE
+    private static final String[] sTemperatures = new String[MAX_TEMPERATURE - MIN_TEMPERATURE + 1];
+
+    // By unit: 0 for mph, 1 for km/h
+    private static final String[] sWindFormats = new String[2];
+    // By unit, then speed * DIRECTIONS.length + direction
+    private static final String[][] sWinds = new String[2][];
+
+    private WeatherFormatter() {
+    }
+
+    static String formatTemperature(Context context, double temperature) {
+        return formatTemperature(context, temperature, Utility.isMetric(context));
+    }
+
+    static synchronized String formatTemperature(Context context, double temperature,
+                                                 boolean metric) {
+        // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
+        // the values here.
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        checkLocale();
+        if (sTemperatureFormat == null) {
+            sTemperatureFormat = context.getString(R.string.format_temperature);
+        }
+
+        // For presentation, assume the user doesn't care about tenths of a degree.
+        long rounded = round(temperature);
+        if (rounded < MIN_TEMPERATURE || rounded > MAX_TEMPERATURE ||
+                (rounded == 0 && isNegative(temperature))) {
+            return String.format(sTemperatureFormat, temperature);
+        }
+        int slot = (int) rounded - MIN_TEMPERATURE;
+        String formatted = sTemperatures[slot];
+        if (formatted == null) {
+            formatted = String.format(sTemperatureFormat, (double) rounded);
+            sTemperatures[slot] = formatted;
+        }
+        return formatted;
+    }
+
+    static String formatWind(Context context, float windSpeed, float degrees) {
+        return formatWind(context, windSpeed, degrees, Utility.isMetric(context));
+    }
+
+    static synchronized String formatWind(Context context, float windSpeed, float degrees,
+                                          boolean metric) {
+        int unit = metric ? 1 : 0;
+        if (!metric) {
+            windSpeed = KMH_TO_MPH * windSpeed;
+        }
+        checkLocale();
+        if (sWindFormats[unit] == null) {
+            sWindFormats[unit] = context.getString(
+                    metric ? R.string.format_wind_kmh : R.string.format_wind_mph);
+            sWinds[unit] = new String[(MAX_WIND_SPEED + 1) * DIRECTIONS.length];
+        }
+
+        int direction = getDirection(degrees);
+        long rounded = round(windSpeed);
+        if (rounded < 0 || rounded > MAX_WIND_SPEED || (rounded == 0 && isNegative(windSpeed))) {
+            return String.format(sWindFormats[unit], windSpeed, DIRECTIONS[direction]);
+        }
+        int slot = (int) rounded * DIRECTIONS.length + direction;
+        String formatted = sWinds[unit][slot];
+        if (formatted == null) {
+            formatted = String.format(sWindFormats[unit], (float) rounded, DIRECTIONS[direction]);
+            sWinds[unit][slot] = formatted;
+        }
+        return formatted;
+    }
+
+    /**
+     * @return the compass direction the wind's coming from, as an index into DIRECTIONS
+     */
+    static int getDirection(float degrees) {
+        if (Float.isNaN(degrees)) {
+            return UNKNOWN_DIRECTION;
+        }
+        // North takes in everything out of range, the way the old if/else chain did
+        if (degrees >= 337.5 || degrees < 22.5) {
+            return 0;
+        }
+        return (int) ((degrees - 22.5) / 45) + 1;
+    }
+
+    /**
+     * Rounds the way String.format's %.0f does, half away from zero.
+     *
+     * @return the rounded value, or Long.MAX_VALUE for something that can't be rounded
+     */
+    static long round(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return Long.MAX_VALUE;
+        }
+        double magnitude = Math.abs(value);
+        double floor = Math.floor(magnitude);
+        // Exact, unlike adding a half, which rounds 0.49999999999999994 up
+        long rounded = (long) floor + (magnitude - floor >= 0.5 ? 1 : 0);
+        return value < 0 ? -rounded : rounded;
+    }
+
+    private static boolean isNegative(double value) {
+        // Catches -0.0 too
+        return Double.doubleToRawLongBits(value) < 0;
+    }
+
+    private static void checkLocale() {
+        Locale locale = Locale.getDefault();
+        if (!locale.equals(sLocale)) {
+            sLocale = locale;
+            sTemperatureFormat = null;
+            Arrays.fill(sTemperatures, null);
+            sWindFormats[0] = null;
+            sWindFormats[1] = null;
+        }
+    }
+}
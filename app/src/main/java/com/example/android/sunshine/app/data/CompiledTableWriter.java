@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Writes whole rows to one table through statements that are compiled once and reused for every
+ * row, binding each column with its declared type.  SQLiteDatabase.insert builds and compiles
+ * fresh SQL for every row it is handed, which is most of the cost of a bulk insert.
+ *
+ * Only rows with a value for every column are written this way; anything else is left for the
+ * caller to write the usual way.  A writer belongs to one transaction: make it after
+ * beginTransaction and close it before endTransaction.
+ */
+class CompiledTableWriter {
+    private static final int TYPE_INTEGER = 0;
+    private static final int TYPE_REAL = 1;
+    private static final int TYPE_TEXT = 2;
+
+    private final SQLiteDatabase mDb;
+    private final String mTable;
+    private final String[] mColumns;
+    private final int[] mTypes;
+    // How many of the leading columns make up the table's unique key
+    private final int mKeyColumnCount;
+
+    // Compiled the first time each is needed
+    private SQLiteStatement mInsert;
+    private SQLiteStatement mInsertOrIgnore;
+    private SQLiteStatement mUpdateIfChanged;
+    private SQLiteStatement mChanges;
+
+    private CompiledTableWriter(SQLiteDatabase db, String table, String[] columns, int[] types,
+                                int keyColumnCount) {
+        mDb = db;
+        mTable = table;
+        mColumns = columns;
+        mTypes = types;
+        mKeyColumnCount = keyColumnCount;
+    }
+
+    static CompiledTableWriter forWeather(SQLiteDatabase db) {
+        return new CompiledTableWriter(db, WeatherEntry.TABLE_NAME,
+                new String[]{
+                        // the UNIQUE (date, location_id) key comes first
+                        WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherEntry.COLUMN_DATE,
+                        // the description is in the condition dictionary, see ConditionDictionary
+                        WeatherEntry.COLUMN_WEATHER_ID,
+                        WeatherEntry.COLUMN_MIN_TEMP,
+                        WeatherEntry.COLUMN_MAX_TEMP,
+                        WeatherEntry.COLUMN_HUMIDITY,
+                        WeatherEntry.COLUMN_PRESSURE,
+                        WeatherEntry.COLUMN_WIND_SPEED,
+                        WeatherEntry.COLUMN_DEGREES
+                },
+                // the measurements are in tenths, see FixedPoint
+                new int[]{
+                        TYPE_INTEGER,
+                        TYPE_INTEGER,
+                        TYPE_INTEGER,
+                        TYPE_INTEGER,
+                        TYPE_INTEGER,
+                        TYPE_INTEGER,
+                        TYPE_INTEGER,
+                        TYPE_INTEGER,
+                        TYPE_INTEGER
+                },
+                2);
+    }
+
+    static CompiledTableWriter forLocation(SQLiteDatabase db) {
+        return new CompiledTableWriter(db, LocationEntry.TABLE_NAME,
+                new String[]{
+                        LocationEntry.COLUMN_LOCATION_SETTING,
+                        LocationEntry.COLUMN_CITY_NAME,
+                        LocationEntry.COLUMN_COORD_LAT,
+                        LocationEntry.COLUMN_COORD_LONG
+                },
+                new int[]{
+                        TYPE_TEXT,
+                        TYPE_TEXT,
+                        TYPE_REAL,
+                        TYPE_REAL
+                },
+                1);
+    }
+
+    /**
+     * @return true if the values are exactly one value of the right type for each column, so
+     * the row can go through this writer.
+     */
+    boolean canWrite(ContentValues values) {
+        if (values.size() != mColumns.length) {
+            return false;
+        }
+        for (int i = 0; i < mColumns.length; i++) {
+            Object value = values.get(mColumns[i]);
+            switch (mTypes[i]) {
+                case TYPE_INTEGER:
+                    if (!(value instanceof Long || value instanceof Integer
+                            || value instanceof Short || value instanceof Byte)) return false;
+                    break;
+                case TYPE_REAL:
+                    if (!(value instanceof Number)) return false;
+                    break;
+                default:
+                    if (!(value instanceof String)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Inserts the row, with the table's own conflict handling.
+     *
+     * @return the new row ID, or -1 if it couldn't be inserted
+     */
+    long insert(ContentValues values) {
+        if (mInsert == null) {
+            mInsert = mDb.compileStatement(buildInsert(""));
+        }
+        bindAll(mInsert, values, 1);
+        try {
+            return mInsert.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            // Same as SQLiteDatabase.insert
+            return -1;
+        }
+    }
+
+    /**
+     * Writes the row unless an identical one is already stored under the same key.  A changed
+     * row is updated in place, keeping its _ID.
+     *
+     * @return true if a row was inserted or changed
+     */
+    boolean upsert(ContentValues values) {
+        if (mUpdateIfChanged == null) {
+            mUpdateIfChanged = mDb.compileStatement(buildUpdateIfChanged());
+            mInsertOrIgnore = mDb.compileStatement(buildInsert(" OR IGNORE"));
+            mChanges = mDb.compileStatement("SELECT changes()");
+        }
+
+        // SET the other columns, WHERE the key matches and any other column differs
+        int index = 1;
+        for (int i = mKeyColumnCount; i < mColumns.length; i++) {
+            bind(mUpdateIfChanged, index++, i, values.get(mColumns[i]));
+        }
+        for (int i = 0; i < mKeyColumnCount; i++) {
+            bind(mUpdateIfChanged, index++, i, values.get(mColumns[i]));
+        }
+        for (int i = mKeyColumnCount; i < mColumns.length; i++) {
+            bind(mUpdateIfChanged, index++, i, values.get(mColumns[i]));
+        }
+        mUpdateIfChanged.execute();
+        if (mChanges.simpleQueryForLong() > 0) {
+            return true;
+        }
+
+        // Either it's the same as the stored row, or there isn't one yet
+        bindAll(mInsertOrIgnore, values, 1);
+        mInsertOrIgnore.execute();
+        return mChanges.simpleQueryForLong() > 0;
+    }
+
+    void close() {
+        if (mInsert != null) mInsert.close();
+        if (mInsertOrIgnore != null) mInsertOrIgnore.close();
+        if (mUpdateIfChanged != null) mUpdateIfChanged.close();
+        if (mChanges != null) mChanges.close();
+    }
+
+    // INSERT [OR IGNORE] INTO table (a, b, ...) VALUES (?, ?, ...)
+    private String buildInsert(String conflict) {
+        StringBuilder sql = new StringBuilder("INSERT").append(conflict).append(" INTO ")
+                .append(mTable).append(" (");
+        for (int i = 0; i < mColumns.length; i++) {
+            sql.append(i > 0 ? ", " : "").append(mColumns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < mColumns.length; i++) {
+            sql.append(i > 0 ? ", ?" : "?");
+        }
+        return sql.append(')').toString();
+    }
+
+    // UPDATE table SET c = ?, ... WHERE k = ? AND ... AND (c IS NOT ? OR ...)
+    private String buildUpdateIfChanged() {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(mTable).append(" SET ");
+        for (int i = mKeyColumnCount; i < mColumns.length; i++) {
+            sql.append(i > mKeyColumnCount ? ", " : "").append(mColumns[i]).append(" = ?");
+        }
+        sql.append(" WHERE ");
+        for (int i = 0; i < mKeyColumnCount; i++) {
+            sql.append(mColumns[i]).append(" = ? AND ");
+        }
+        sql.append('(');
+        for (int i = mKeyColumnCount; i < mColumns.length; i++) {
+            sql.append(i > mKeyColumnCount ? " OR " : "").append(mColumns[i]).append(" IS NOT ?");
+        }
+        return sql.append(')').toString();
+    }
+
+    private void bindAll(SQLiteStatement statement, ContentValues values, int firstIndex) {
+        for (int i = 0; i < mColumns.length; i++) {
+            bind(statement, firstIndex + i, i, values.get(mColumns[i]));
+        }
+    }
+
+    private void bind(SQLiteStatement statement, int index, int column, Object value) {
+        switch (mTypes[column]) {
+            case TYPE_INTEGER:
+                statement.bindLong(index, ((Number) value).longValue());
+                break;
+            case TYPE_REAL:
+                statement.bindDouble(index, ((Number) value).doubleValue());
+                break;
+            default:
+                statement.bindString(index, (String) value);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.ConditionEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+
+/**
+ * Takes the short description out of weather values on their way into the database and keeps
+ * it in the condition dictionary instead, so the weather table only holds the weather id.  A
+ * forecast repeats the same handful of conditions, so each is only looked at once per writer.
+ *
+ * Like CompiledTableWriter, a dictionary belongs to one transaction: make it after
+ * beginTransaction and close it before endTransaction.
+ */
+class ConditionDictionary {
+    private final SQLiteDatabase mDb;
+
+    // The descriptions written through this dictionary so far, by weather id
+    private final HashMap<Long, String> mWritten = new HashMap<Long, String>();
+
+    // Compiled the first time each is needed
+    private SQLiteStatement mUpdateIfChanged;
+    private SQLiteStatement mInsertOrIgnore;
+    private SQLiteStatement mChanges;
+
+    ConditionDictionary(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Stores the values' description under their weather id, if they have both.  Changing the
+     * description of a condition that's already stored changes it for every row with that id,
+     * so that's added to changes as the whole table.
+     *
+     * @return the values without the description, ready for the weather table.  The values
+     * passed in are left alone.
+     */
+    ContentValues intern(ContentValues values, WeatherChanges changes) {
+        if (!values.containsKey(WeatherEntry.COLUMN_SHORT_DESC)) {
+            return values;
+        }
+        Long weatherId = values.getAsLong(WeatherEntry.COLUMN_WEATHER_ID);
+        String description = values.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+        if (weatherId == null || description == null) {
+            // Nothing to key it by, let the write fail the way it would for any unknown column
+            return values;
+        }
+
+        if (!description.equals(mWritten.get(weatherId))) {
+            if (write(weatherId, description)) {
+                changes.addWholeTable();
+            }
+            mWritten.put(weatherId, description);
+        }
+
+        ContentValues row = new ContentValues(values);
+        row.remove(WeatherEntry.COLUMN_SHORT_DESC);
+        return row;
+    }
+
+    void close() {
+        if (mUpdateIfChanged != null) mUpdateIfChanged.close();
+        if (mInsertOrIgnore != null) mInsertOrIgnore.close();
+        if (mChanges != null) mChanges.close();
+    }
+
+    // @return true if a description that was already stored changed
+    private boolean write(long weatherId, String description) {
+        if (mUpdateIfChanged == null) {
+            mUpdateIfChanged = mDb.compileStatement("UPDATE " + ConditionEntry.TABLE_NAME +
+                    " SET " + ConditionEntry.COLUMN_SHORT_DESC + " = ? WHERE " +
+                    ConditionEntry.COLUMN_WEATHER_ID + " = ? AND " +
+                    ConditionEntry.COLUMN_SHORT_DESC + " IS NOT ?");
+            mInsertOrIgnore = mDb.compileStatement("INSERT OR IGNORE INTO " +
+                    ConditionEntry.TABLE_NAME + " (" + ConditionEntry.COLUMN_WEATHER_ID + ", " +
+                    ConditionEntry.COLUMN_SHORT_DESC + ") VALUES (?, ?)");
+            mChanges = mDb.compileStatement("SELECT changes()");
+        }
+
+        mUpdateIfChanged.bindString(1, description);
+        mUpdateIfChanged.bindLong(2, weatherId);
+        mUpdateIfChanged.bindString(3, description);
+        mUpdateIfChanged.execute();
+        if (mChanges.simpleQueryForLong() > 0) {
+            return true;
+        }
+
+        // Either it's stored already, or it's a condition we haven't seen before
+        mInsertOrIgnore.bindLong(1, weatherId);
+        mInsertOrIgnore.bindString(2, description);
+        mInsertOrIgnore.execute();
+        return false;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * The weather and archive tables keep their measurements as whole tenths in INTEGER columns:
+ * 15.3 degrees is stored as 153.  SQLite writes a small integer in one or two bytes where a
+ * REAL takes eight, and comparing two of them in an upsert is exact.
+ *
+ * Values are encoded here on their way in.  On the way out the provider reads through the
+ * WeatherDbHelper views, which divide them back down, unless a query asks for
+ * WeatherEntry.PARAM_FIXED_POINT.  Update and delete selections that mention a measurement are
+ * run against the views too, so callers never see tenths unless they ask for them.
+ *
+ * Pressure is kept in tenths of a hPa like the rest rather than in whole hPa, so a pressure
+ * written with one decimal reads back as it was written.
+ */
+class FixedPoint {
+
+    static final int SCALE = WeatherEntry.FIXED_POINT_SCALE;
+
+    // Every weather column stored in tenths
+    static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    /**
+     * @return the values with each measurement in tenths, or the values themselves if there
+     * aren't any to encode.  The values passed in are left alone.
+     * @throws IllegalArgumentException if a measurement isn't a number
+     */
+    static ContentValues encode(ContentValues values) {
+        ContentValues encoded = null;
+        for (String column : COLUMNS) {
+            if (values.get(column) == null) {
+                // Missing, or null for the NOT NULL constraint to turn down
+                continue;
+            }
+            Double value = values.getAsDouble(column);
+            if (value == null || value.isNaN() || value.isInfinite()) {
+                throw new IllegalArgumentException(
+                        column + " isn't a number: " + values.get(column));
+            }
+            if (encoded == null) {
+                encoded = new ContentValues(values);
+            }
+            encoded.put(column, encode(value));
+        }
+        return encoded != null ? encoded : values;
+    }
+
+    /**
+     * @return whether the SQL names any of the measurement columns, or might
+     */
+    static boolean mentionsMeasurement(String sql) {
+        for (String column : COLUMNS) {
+            if (sql.contains(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static long encode(double value) {
+        return Math.round(value * SCALE);
+    }
+
+    static double decode(long tenths) {
+        return tenths / (double) SCALE;
+    }
+
+    // The SQL that turns a stored column back into its measurement
+    static String decodeSql(String column) {
+        return column + " / " + SCALE + ".0";
+    }
+
+    // The SQL that turns a REAL measurement into tenths, for migrating old rows
+    static String encodeSql(String column) {
+        return "CAST(ROUND(" + column + " * " + SCALE + ") AS INTEGER)";
+    }
+}
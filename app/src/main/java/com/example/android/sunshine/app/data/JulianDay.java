@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.TimeZone;
+
+/**
+ * Day numbers in the device's time zone, the same ones android.text.format.Time hands out
+ * (Time.getJulianDay and Time.setJulianDay), without making a Time every call.  Every date in
+ * the database is the local midnight that starts its day, see WeatherContract.normalizeDate.
+ *
+ * The zone's offset is looked up once per UTC day and kept in a small table, so a forecast's
+ * worth of dates only ever asks the zone about a couple of weeks.  Unlike Time, the offset used
+ * is the one in force at the instant asked about, so a date on the far side of a daylight
+ * saving change still lands on the right day.
+ *
+ * The time zone is read once; TimeZoneChangedReceiver calls onTimeZoneChanged when it changes.
+ */
+public class JulianDay {
+
+    // The julian day of the epoch, Time.EPOCH_JULIAN_DAY
+    public static final int EPOCH_JULIAN_DAY = 2440588;
+
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+    private static final long DAY_IN_MILLIS = 24 * HOUR_IN_MILLIS;
+
+    // A month of days, a power of two so a day's slot is a mask
+    private static final int CACHE_SIZE = 32;
+    // Stored for a day the offset changes during, so it's looked up by the instant instead
+    private static final int CHANGES_DURING_DAY = Integer.MIN_VALUE;
+
+    private static TimeZone sZone = TimeZone.getDefault();
+    // UTC day number and that day's offset, by slot
+    private static final long[] sCachedDays = new long[CACHE_SIZE];
+    private static final int[] sCachedOffsets = new int[CACHE_SIZE];
+
+    static {
+        clearCache();
+    }
+
+    private JulianDay() {
+    }
+
+    /**
+     * @return the julian day the instant falls on, in the device's time zone
+     */
+    public static int fromMillis(long millis) {
+        return (int) floorDiv(millis + getOffset(millis), DAY_IN_MILLIS) + EPOCH_JULIAN_DAY;
+    }
+
+    /**
+     * @return the local midnight that starts the julian day: the first one if a daylight saving
+     * change brings it round twice, or the change itself if it skips midnight (America/Havana),
+     * like Time.setJulianDay
+     */
+    public static long toMillis(int julianDay) {
+        long utcMidnight = (julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+        // The offset that matters is the one at local midnight, which is the far side of a
+        // change if there's one between the two midnights
+        long localMidnight = utcMidnight - getOffset(utcMidnight - getOffset(utcMidnight));
+        if (fromMillis(localMidnight) == julianDay && fromMillis(localMidnight - 1) < julianDay) {
+            return localMidnight;
+        }
+        // A change skipped midnight, or went back over it so it came round twice: the day
+        // starts at the first instant on it.  No zone is more than 14 hours either side of UTC.
+        long before = utcMidnight - 15 * HOUR_IN_MILLIS;
+        long on = utcMidnight + 13 * HOUR_IN_MILLIS;
+        while (on - before > 1) {
+            long middle = before + (on - before) / 2;
+            if (fromMillis(middle) < julianDay) {
+                before = middle;
+            } else {
+                on = middle;
+            }
+        }
+        return on;
+    }
+
+    /**
+     * @return the local midnight that starts the day the instant falls on
+     */
+    public static long normalize(long millis) {
+        return toMillis(fromMillis(millis));
+    }
+
+    public static int today() {
+        return fromMillis(System.currentTimeMillis());
+    }
+
+    /**
+     * @return the zone days are being numbered in.  It's the same object until
+     * onTimeZoneChanged, so anything that depends on the zone can tell it's changed by comparing
+     * it to the last one it saw.  Don't change it.
+     */
+    public static synchronized TimeZone getTimeZone() {
+        return sZone;
+    }
+
+    public static synchronized void onTimeZoneChanged() {
+        sZone = TimeZone.getDefault();
+        clearCache();
+    }
+
+    /**
+     * @return the time zone's offset from UTC at the instant, in milliseconds
+     */
+    static synchronized int getOffset(long millis) {
+        long utcDay = floorDiv(millis, DAY_IN_MILLIS);
+        int slot = (int) (utcDay & (CACHE_SIZE - 1));
+        if (sCachedDays[slot] != utcDay) {
+            long dayStart = utcDay * DAY_IN_MILLIS;
+            int offsetAtStart = sZone.getOffset(dayStart);
+            int offsetAtEnd = sZone.getOffset(dayStart + DAY_IN_MILLIS - 1);
+            sCachedDays[slot] = utcDay;
+            sCachedOffsets[slot] = offsetAtStart == offsetAtEnd ? offsetAtStart : CHANGES_DURING_DAY;
+        }
+        int offset = sCachedOffsets[slot];
+        return offset != CHANGES_DURING_DAY ? offset : sZone.getOffset(millis);
+    }
+
+    private static void clearCache() {
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            // No UTC day maps to a slot it doesn't fit, so this never matches
+            sCachedDays[i] = i + 1;
+        }
+    }
+
+    // Rounds towards negative infinity, so instants before the epoch get the right day
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        return (dividend % divisor != 0 && (dividend < 0) != (divisor < 0)) ? quotient - 1 : quotient;
+    }
+}
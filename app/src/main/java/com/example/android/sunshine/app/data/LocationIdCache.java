@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.HashMap;
+
+/**
+ * Remembers the _ID of each row in the location table by its location setting, so a sync
+ * doesn't have to ask the database for every location it stores weather for.  The whole table
+ * is read the first time it's needed; after that WeatherProvider keeps it up to date as
+ * locations are added, and makes it read the table again when they're changed or deleted.
+ */
+public class LocationIdCache {
+
+    private static final Object sLock = new Object();
+    // Null until the table has been read
+    private static HashMap<String, Long> sIds;
+    // Bumped by every change, so a read of the table that raced with one isn't kept
+    private static long sGeneration;
+
+    /**
+     * @param locationSetting The location string used to request updates from the server.
+     * @return the _ID of the location, or -1 if it hasn't been added yet.
+     */
+    public static long getLocationId(Context context, String locationSetting) {
+        HashMap<String, Long> ids;
+        long generation;
+        synchronized (sLock) {
+            if (sIds != null) {
+                Long id = sIds.get(locationSetting);
+                return id != null ? id : -1;
+            }
+            generation = sGeneration;
+        }
+
+        ids = new HashMap<String, Long>();
+        Cursor cursor = context.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_LOCATION_SETTING},
+                null, null, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    ids.put(cursor.getString(1), cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        synchronized (sLock) {
+            if (generation == sGeneration) {
+                sIds = ids;
+            }
+        }
+        Long id = ids.get(locationSetting);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Call once a new location row has been committed.
+     */
+    static void onLocationInserted(String locationSetting, long id) {
+        synchronized (sLock) {
+            sGeneration++;
+            if (sIds != null) {
+                sIds.put(locationSetting, id);
+            }
+        }
+    }
+
+    /**
+     * Call when location rows have been changed or deleted, as there's no knowing which, or
+     * when the cache turns out to be wrong.
+     */
+    public static void invalidate() {
+        synchronized (sLock) {
+            sGeneration++;
+            sIds = null;
+        }
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.CursorIndexOutOfBoundsException;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cursor over a location's days that only reads them from the provider a page at a time
+ * (see WeatherEntry.PARAM_LIMIT), as something moves onto them.  It holds on to the last few
+ * pages it read and closes the rest, so however long the range is, only MAX_PAGES pages of it
+ * are ever in memory.  Besides those it keeps the key each page starts after, one long a page.
+ *
+ * Off the main thread a move onto a page that isn't in memory reads it there and then.  On the
+ * main thread it never queries: pages are read on a background thread, the next one before a
+ * move gets near the end of the page it's on, and a move onto a row that isn't in yet fails
+ * until its page comes in and the OnRowsLoadedListener hears about it.
+ *
+ * The count is worked out up front by whoever makes the cursor, since a page can't say how many
+ * come after it.  If the days change underneath, rows past the end of what's left can't be
+ * moved to; the cursor's notification Uri lets its loader know to start over.
+ *
+ * Like any cursor it's meant to be used from one thread at a time.
+ */
+public class PagedWeatherCursor extends AbstractCursor {
+
+    /**
+     * Told on the main thread when rows a move failed on, or was about to get to, have been read.
+     */
+    public interface OnRowsLoadedListener {
+        void onRowsLoaded(int firstPosition, int rowCount);
+    }
+
+    // Enough for a screenful either side of the one being looked at
+    static final int MAX_PAGES = 3;
+
+    private static final int PAGE_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    // Pages come in for the main thread to pick up
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    // Every paged cursor reads its pages on the same thread, one page after another
+    private static Executor sPageExecutor;
+
+    private final ContentResolver mResolver;
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final String mKeyColumn;
+    private final int mCount;
+    private final int mPageSize;
+
+    // The key each page starts after, for the pages whose start we know: page 0, and each
+    // page after one that's been read
+    private final long[] mPageAfter;
+    private int mKnownPages = 1;
+
+    // The pages in memory, least recently used first.  The one the cursor is on stays, even
+    // if that means one more for a while.
+    private final LinkedHashMap<Integer, Cursor> mPages =
+            new LinkedHashMap<Integer, Cursor>(MAX_PAGES + 2, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Cursor> eldest) {
+                    if (size() > MAX_PAGES && eldest.getValue() != mPage) {
+                        eldest.getValue().close();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    // The pages being read on the background thread, by the main thread
+    private final Set<Integer> mLoadingPages = new HashSet<Integer>();
+    private OnRowsLoadedListener mListener;
+
+    // From the first page
+    private String[] mColumnNames;
+    private Bundle mExtras = Bundle.EMPTY;
+
+    // The page the cursor is on, moved to the row
+    private Cursor mPage;
+
+    /**
+     * Reads the first page straight away, so do this off the main thread.
+     *
+     * @param uri        a weather, archive or weekly Uri for a location
+     * @param projection must include keyColumn
+     * @param keyColumn  the column pages are keyed on: the date, or the week start for weekly
+     * @param count      how many rows the Uri has
+     * @return the cursor, or null if the first page couldn't be queried, like
+     * ContentResolver.query
+     */
+    public static PagedWeatherCursor query(ContentResolver resolver, Uri uri,
+                                           String[] projection, String keyColumn, int count,
+                                           int pageSize) {
+        PagedWeatherCursor cursor =
+                new PagedWeatherCursor(resolver, uri, projection, keyColumn, count, pageSize);
+        Cursor first = cursor.queryPage(0, 0);
+        if (first == null) {
+            return null;
+        }
+        cursor.addPage(0, first);
+        cursor.mColumnNames = first.getColumnNames();
+        // Without the key there's no finding the second page
+        first.getColumnIndexOrThrow(keyColumn);
+        cursor.setNotificationUri(resolver, uri);
+        return cursor;
+    }
+
+    private PagedWeatherCursor(ContentResolver resolver, Uri uri, String[] projection,
+                               String keyColumn, int count, int pageSize) {
+        mResolver = resolver;
+        mUri = uri;
+        mProjection = projection;
+        mKeyColumn = keyColumn;
+        mCount = count;
+        mPageSize = pageSize;
+        mPageAfter = new long[(count + pageSize - 1) / pageSize + 1];
+    }
+
+    /**
+     * Call on the main thread.  Null stops the calls.
+     */
+    public void setOnRowsLoadedListener(OnRowsLoadedListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public Bundle getExtras() {
+        return mExtras;
+    }
+
+    // AbstractCursor has this from Marshmallow on
+    public void setExtras(Bundle extras) {
+        mExtras = extras != null ? extras : Bundle.EMPTY;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int pageNumber = newPosition / mPageSize;
+        Cursor page;
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            page = mPages.get(pageNumber);
+            readAheadOf(newPosition);
+        } else {
+            page = getPage(pageNumber);
+        }
+        if (page == null || !page.moveToPosition(newPosition % mPageSize)) {
+            mPage = null;
+            return false;
+        }
+        mPage = page;
+        return true;
+    }
+
+    private Cursor getPage(int page) {
+        Cursor cursor = mPages.get(page);
+        if (cursor != null) {
+            return cursor;
+        }
+        // A page can only be found from the one before it, so catch up to this one first.
+        // Scrolling only ever needs the one before, which is still in memory.
+        while (mKnownPages <= page) {
+            int knownPages = mKnownPages;
+            cursor = queryPage(knownPages - 1, mPageAfter[knownPages - 1]);
+            if (cursor == null) {
+                return null;
+            }
+            addPage(knownPages - 1, cursor);
+            if (mKnownPages == knownPages) {
+                // Ran out of days before the count said we would
+                return null;
+            }
+        }
+        cursor = queryPage(page, mPageAfter[page]);
+        if (cursor != null) {
+            addPage(page, cursor);
+        }
+        return cursor;
+    }
+
+    // Starts reading the row's page if it isn't in, and the page past it if the row's in the
+    // half of its page nearest that one, so scrolling either way finds it there already
+    private void readAheadOf(int position) {
+        int page = position / mPageSize;
+        readInBackground(page);
+        if (position % mPageSize >= mPageSize / 2) {
+            readInBackground(page + 1);
+        } else if (page > 0) {
+            readInBackground(page - 1);
+        }
+    }
+
+    private void readInBackground(final int page) {
+        if (page * mPageSize >= mCount || mPages.containsKey(page) ||
+                mLoadingPages.contains(page) || isClosed()) {
+            return;
+        }
+        mLoadingPages.add(page);
+        // Catching up from the last page whose start we know, like getPage
+        final int firstPage = Math.min(page, mKnownPages - 1);
+        final long firstAfter = mPageAfter[firstPage];
+        getPageExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Cursor> pages = new ArrayList<Cursor>();
+                long after = firstAfter;
+                for (int i = firstPage; i <= page; i++) {
+                    Cursor cursor = queryPage(i, after);
+                    if (cursor == null) {
+                        break;
+                    }
+                    pages.add(cursor);
+                    // Fills the window here rather than on the main thread
+                    if (cursor.getCount() < mPageSize || !cursor.moveToLast()) {
+                        break;
+                    }
+                    after = cursor.getLong(cursor.getColumnIndex(mKeyColumn));
+                }
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPagesRead(firstPage, page, pages);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onPagesRead(int firstPage, int wantedPage, List<Cursor> pages) {
+        mLoadingPages.remove(wantedPage);
+        for (int i = 0; i < pages.size(); i++) {
+            int page = firstPage + i;
+            Cursor cursor = pages.get(i);
+            if (isClosed()) {
+                cursor.close();
+            } else if (page != wantedPage) {
+                // Only read to find where the next one starts
+                notePageAfter(page, cursor);
+                cursor.close();
+            } else {
+                addPage(page, cursor);
+                if (mListener != null) {
+                    int first = page * mPageSize;
+                    mListener.onRowsLoaded(first, Math.min(mPageSize, mCount - first));
+                }
+            }
+        }
+    }
+
+    private Cursor queryPage(int page, long after) {
+        Uri pageUri = page == 0
+                ? WeatherEntry.buildPageUri(mUri, mPageSize)
+                : WeatherEntry.buildPageUri(mUri, after, mPageSize);
+        return mResolver.query(pageUri, mProjection, null, null, null);
+    }
+
+    private void addPage(int page, Cursor cursor) {
+        notePageAfter(page, cursor);
+        Cursor stale = mPages.put(page, cursor);
+        if (stale != null && stale != cursor) {
+            stale.close();
+        }
+    }
+
+    // A full page tells us where the next one starts
+    private void notePageAfter(int page, Cursor cursor) {
+        if (cursor.getCount() == mPageSize && page + 1 < mPageAfter.length &&
+                page + 1 == mKnownPages && cursor.moveToLast()) {
+            mPageAfter[page + 1] = cursor.getLong(cursor.getColumnIndex(mKeyColumn));
+            mKnownPages = page + 2;
+        }
+    }
+
+    private static synchronized Executor getPageExecutor() {
+        if (sPageExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                    PAGE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            executor.allowCoreThreadTimeOut(true);
+            sPageExecutor = executor;
+        }
+        return sPageExecutor;
+    }
+
+    private Cursor current() {
+        if (mPage == null) {
+            throw new CursorIndexOutOfBoundsException(getPosition(), mCount);
+        }
+        return mPage;
+    }
+
+    @Override
+    public String getString(int column) {
+        return current().getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return current().getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return current().getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return current().getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return current().getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return current().getDouble(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return current().getBlob(column);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    @Override
+    public int getType(int column) {
+        return current().getType(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return current().isNull(column);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        for (Cursor page : mPages.values()) {
+            page.close();
+        }
+        mPages.clear();
+        mPage = null;
+        mListener = null;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * How long the provider's calls take, for each kind of Uri (its UriMatcher code) and each
+ * operation: a histogram of the latencies, how many rows they wrote, and how much of the time
+ * went on transactions.  Queries don't count their rows, since that would mean filling the
+ * cursor's window here rather than leaving it to whoever reads it.
+ *
+ * It's always on, since the point is finding slow Uris on real devices, and all it costs a call
+ * is a couple of System.nanoTime()s and a few sums under a lock.  Read it with dump, which is
+ * what dumpsys prints for WeatherProvider and, in debug builds, what METHOD_GET_METRICS answers.
+ */
+class ProviderMetrics {
+
+    static final int OP_QUERY = 0;
+    static final int OP_INSERT = 1;
+    static final int OP_BULK_INSERT = 2;
+    static final int OP_UPDATE = 3;
+    static final int OP_DELETE = 4;
+    static final int OP_APPLY_BATCH = 5;
+    private static final String[] OP_NAMES =
+            {"query", "insert", "bulkInsert", "update", "delete", "applyBatch"};
+
+    // Bucket 0 is under 1ms, bucket i under 2^i ms, and the last one everything slower
+    static final int BUCKET_COUNT = 12;
+
+    private static final long NANOS_PER_MILLI = 1000 * 1000;
+
+    private static class Stats {
+        long count;
+        long totalNanos;
+        long maxNanos;
+        long rows;
+        long transactionNanos;
+        final long[] buckets = new long[BUCKET_COUNT];
+    }
+
+    // What to call each match code in the dump
+    private final SparseArray<String> mMatchNames;
+
+    // By match code and operation, see getKey
+    private final SparseArray<Stats> mStats = new SparseArray<Stats>();
+
+    // For this thread: how many transactions deep it is, when the outermost began, and the time
+    // spent in transactions that hasn't been put down to a call yet
+    private final ThreadLocal<long[]> mTransactions = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[3];
+        }
+    };
+
+    ProviderMetrics(SparseArray<String> matchNames) {
+        mMatchNames = matchNames;
+    }
+
+    long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Puts a call down to its match code, along with any transaction time it ran up on this
+     * thread.  Calls made inside another one's transaction, like an applyBatch's, don't have any:
+     * it all goes to the outermost.
+     */
+    void record(int match, int op, long startNanos, long rows) {
+        long nanos = System.nanoTime() - startNanos;
+        long[] transactions = mTransactions.get();
+        long transactionNanos = transactions[2];
+        transactions[2] = 0;
+
+        synchronized (this) {
+            int key = getKey(match, op);
+            Stats stats = mStats.get(key);
+            if (stats == null) {
+                stats = new Stats();
+                mStats.put(key, stats);
+            }
+            stats.count++;
+            stats.totalNanos += nanos;
+            stats.maxNanos = Math.max(stats.maxNanos, nanos);
+            stats.rows += rows;
+            stats.transactionNanos += transactionNanos;
+            stats.buckets[getBucket(nanos)]++;
+        }
+    }
+
+    void onBeginTransaction() {
+        long[] transactions = mTransactions.get();
+        if (transactions[0]++ == 0) {
+            transactions[1] = System.nanoTime();
+        }
+    }
+
+    void onEndTransaction() {
+        long[] transactions = mTransactions.get();
+        if (--transactions[0] == 0) {
+            transactions[2] += System.nanoTime() - transactions[1];
+        }
+    }
+
+    synchronized void reset() {
+        mStats.clear();
+    }
+
+    /**
+     * One line for each match code and operation that's been called, like
+     *
+     *   weather bulkInsert count=12 rows=168 avg=1.3ms max=8.2ms p50<2ms p90<4ms p99<16ms
+     *       transactions=1.1ms histogram=3,7,1,0,1,0,0,0,0,0,0,0
+     *
+     * where the percentiles are the histogram bucket they fall in.  Queries leave out rows.
+     */
+    synchronized void dump(PrintWriter writer) {
+        writer.print("Latency buckets (ms): <1");
+        for (int i = 1; i < BUCKET_COUNT - 1; i++) {
+            writer.print(" <" + (1L << i));
+        }
+        writer.println(" >=" + (1L << (BUCKET_COUNT - 2)));
+
+        for (int i = 0; i < mStats.size(); i++) {
+            int key = mStats.keyAt(i);
+            Stats stats = mStats.valueAt(i);
+            int match = getMatch(key);
+            String name = mMatchNames.get(match, Integer.toString(match));
+
+            StringBuilder histogram = new StringBuilder();
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                histogram.append(bucket > 0 ? "," : "").append(stats.buckets[bucket]);
+            }
+            int op = getOp(key);
+            String rows = op == OP_QUERY ? "" : " rows=" + stats.rows;
+            writer.println(String.format(Locale.US,
+                    "%s %s count=%d%s avg=%.1fms max=%.1fms p50%s p90%s p99%s " +
+                            "transactions=%.1fms histogram=%s",
+                    name, OP_NAMES[op], stats.count, rows,
+                    stats.totalNanos / (double) stats.count / NANOS_PER_MILLI,
+                    stats.maxNanos / (double) NANOS_PER_MILLI,
+                    getPercentile(stats, 50), getPercentile(stats, 90), getPercentile(stats, 99),
+                    stats.transactionNanos / (double) NANOS_PER_MILLI, histogram));
+        }
+    }
+
+    private static String getPercentile(Stats stats, int percent) {
+        long wanted = (stats.count * percent + 99) / 100;
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT - 1; bucket++) {
+            seen += stats.buckets[bucket];
+            if (seen >= wanted) {
+                return "<" + (1L << bucket) + "ms";
+            }
+        }
+        return ">=" + (1L << (BUCKET_COUNT - 2)) + "ms";
+    }
+
+    static int getBucket(long nanos) {
+        long millis = nanos / NANOS_PER_MILLI;
+        // 0 for under 1ms, 1 for 1ms, 2 for 2-3ms, 3 for 4-7ms, ...
+        int bucket = 64 - Long.numberOfLeadingZeros(millis);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    // Match codes can be UriMatcher.NO_MATCH, so this has to work for -1 too
+    private static int getKey(int match, int op) {
+        return match * OP_NAMES.length + op;
+    }
+
+    private static int getMatch(int key) {
+        return (key - getOp(key)) / OP_NAMES.length;
+    }
+
+    private static int getOp(int key) {
+        int op = key % OP_NAMES.length;
+        return op < 0 ? op + OP_NAMES.length : op;
+    }
+}
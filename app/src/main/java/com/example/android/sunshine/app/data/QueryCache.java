@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Holds on to the results of the provider's most recent queries, copied out into memory, so the
+ * same question asked again (today's weather for the preferred location gets asked by the
+ * widgets, Muzei, the wearable, the notification and the detail screen) doesn't go back to the
+ * database.
+ *
+ * Results are dropped when the provider tells observers of their Uri that something changed,
+ * by the same rules a cursor's observer is told: a change to a Uri reaches the results of that
+ * Uri, of the Uris under it, and of the Uris above it.
+ *
+ * Copying a row out needs Cursor.getType, so this is only for Honeycomb and up.
+ */
+@TargetApi(11)
+class QueryCache {
+    private final int mMaxEntries;
+    private final int mMaxRows;
+
+    // In least recently used order
+    private final LinkedHashMap<String, Result> mResults;
+    // Bumped by every invalidation, so a query that raced with a write isn't kept
+    private long mGeneration;
+
+    // How the cache has done for the life of the provider
+    private long mHitCount;
+    private long mMissCount;
+    private long mInvalidationCount;
+    private long mEvictionCount;
+
+    private static class Result {
+        final Uri uri;
+        final String[] columnNames;
+        final Object[][] rows;
+
+        Result(Uri uri, String[] columnNames, Object[][] rows) {
+            this.uri = uri;
+            this.columnNames = columnNames;
+            this.rows = rows;
+        }
+    }
+
+    QueryCache(int maxEntries, int maxRows) {
+        mMaxEntries = maxEntries;
+        mMaxRows = maxRows;
+        mResults = new LinkedHashMap<String, Result>(maxEntries, 0.75f, true);
+    }
+
+    static String buildKey(Uri uri, String[] projection, String selection,
+                           String[] selectionArgs, String sortOrder) {
+        return uri + "|" + Arrays.toString(projection) + "|" + selection + "|" +
+                Arrays.toString(selectionArgs) + "|" + sortOrder;
+    }
+
+    /**
+     * @return a fresh cursor over the stored result, or null if there isn't one
+     */
+    synchronized Cursor get(String key) {
+        Result result = mResults.get(key);
+        if (result == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        MatrixCursor cursor = new MatrixCursor(result.columnNames, result.rows.length);
+        for (Object[] row : result.rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Call before running a query whose result might be stored.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Copies the cursor's rows into the cache, unless there are too many of them or the cache
+     * has been invalidated since the query started.  The cursor is closed either way.
+     *
+     * @param generation what getGeneration returned before the query ran
+     * @return a cursor over the same rows, to be used in place of the one passed in
+     */
+    Cursor put(String key, Uri uri, long generation, Cursor cursor) {
+        if (cursor.getCount() > mMaxRows) {
+            return cursor;
+        }
+        String[] columnNames = cursor.getColumnNames();
+        Object[][] rows = new Object[cursor.getCount()][];
+        try {
+            for (int i = 0; cursor.moveToPosition(i); i++) {
+                Object[] row = new Object[columnNames.length];
+                for (int column = 0; column < row.length; column++) {
+                    row[column] = getValue(cursor, column);
+                }
+                rows[i] = row;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Result result = new Result(uri, columnNames, rows);
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mResults.put(key, result);
+                if (mResults.size() > mMaxEntries) {
+                    Iterator<Result> eldest = mResults.values().iterator();
+                    eldest.next();
+                    eldest.remove();
+                    mEvictionCount++;
+                }
+            }
+        }
+        MatrixCursor copy = new MatrixCursor(columnNames, rows.length);
+        for (Object[] row : rows) {
+            copy.addRow(row);
+        }
+        return copy;
+    }
+
+    /**
+     * Drops the results an observer of this Uri would have been told about.  Call once the
+     * change has been committed.
+     */
+    synchronized void invalidate(Uri uri) {
+        mGeneration++;
+        List<String> changed = uri.getPathSegments();
+        Iterator<Result> results = mResults.values().iterator();
+        while (results.hasNext()) {
+            List<String> cached = results.next().uri.getPathSegments();
+            if (isPrefix(changed, cached) || isPrefix(cached, changed)) {
+                results.remove();
+                mInvalidationCount++;
+            }
+        }
+    }
+
+    synchronized void clear() {
+        mGeneration++;
+        mInvalidationCount += mResults.size();
+        mResults.clear();
+    }
+
+    synchronized String getStats() {
+        long lookups = mHitCount + mMissCount;
+        return "hits=" + mHitCount + " misses=" + mMissCount +
+                " hitRate=" + (lookups == 0 ? 0 : mHitCount * 100 / lookups) + "%" +
+                " invalidations=" + mInvalidationCount + " evictions=" + mEvictionCount +
+                " entries=" + mResults.size();
+    }
+
+    private static boolean isPrefix(List<String> prefix, List<String> segments) {
+        return prefix.size() <= segments.size() &&
+                segments.subList(0, prefix.size()).equals(prefix);
+    }
+
+    private static Object getValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return cursor.getString(column);
+        }
+    }
+}
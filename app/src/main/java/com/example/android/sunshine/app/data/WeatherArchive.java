@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeeklyEntry;
+
+/**
+ * Moves past days out of the weather table into the archive, and keeps the archive from growing
+ * forever: days older than the daily retention are boiled down into one row per week, and
+ * weeks older than the weekly retention are dropped.
+ *
+ * Everything here must run inside the caller's transaction.
+ */
+class WeatherArchive {
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // The weather columns that are copied into the archive
+    private static final String ARCHIVED_COLUMNS =
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES;
+
+    // The local julian day a stored date falls on.  Dates are local midnights, so adding the
+    // zone's offset plus half a day (the first ?, see getDayShift) lands mid-way through the
+    // day in UTC, whatever daylight saving the date had.
+    private static final String LOCAL_DAY_EXPRESSION =
+            "((" + WeatherEntry.COLUMN_DATE + " + ?) / " + DAY_IN_MILLIS + " + " +
+            JulianDay.EPOCH_JULIAN_DAY + ")";
+
+    // Julian day numbers are Mondays when they divide by 7, the same sum as getWeekStartDay
+    private static final String MONDAY_EXPRESSION = "(local_day - local_day % 7)";
+
+    // Adds the days before a cutoff onto the weeks they belong to.  A week that already has a
+    // row, because some of its days were archived late, gets the new days merged in.  The days
+    // are read through the decoded view, since the weekly table isn't kept in tenths.  A week
+    // starts at the local midnight of its Monday, counted back in whole days from the week's
+    // first archived day.
+    private static final String DOWNSAMPLE_SQL =
+            "INSERT OR REPLACE INTO " + WeeklyEntry.TABLE_NAME + " (" +
+            WeeklyEntry.COLUMN_LOC_KEY + ", " +
+            WeeklyEntry.COLUMN_WEEK_START + ", " +
+            WeeklyEntry.COLUMN_DAY_COUNT + ", " +
+            WeeklyEntry.COLUMN_MIN_TEMP + ", " +
+            WeeklyEntry.COLUMN_MAX_TEMP + ", " +
+            WeeklyEntry.COLUMN_AVG_MIN_TEMP + ", " +
+            WeeklyEntry.COLUMN_AVG_MAX_TEMP + ", " +
+            WeeklyEntry.COLUMN_AVG_HUMIDITY + ", " +
+            WeeklyEntry.COLUMN_AVG_PRESSURE + ", " +
+            WeeklyEntry.COLUMN_AVG_WIND_SPEED + ") " +
+            "SELECT d.location_id, d.week_start, " +
+            "d.day_count + IFNULL(w.day_count, 0), " +
+            "MIN(d.min, IFNULL(w.min, d.min)), " +
+            "MAX(d.max, IFNULL(w.max, d.max)), " +
+            "(d.sum_min + IFNULL(w.avg_min * w.day_count, 0)) / (d.day_count + IFNULL(w.day_count, 0)), " +
+            "(d.sum_max + IFNULL(w.avg_max * w.day_count, 0)) / (d.day_count + IFNULL(w.day_count, 0)), " +
+            "(d.sum_humidity + IFNULL(w.avg_humidity * w.day_count, 0)) / (d.day_count + IFNULL(w.day_count, 0)), " +
+            "(d.sum_pressure + IFNULL(w.avg_pressure * w.day_count, 0)) / (d.day_count + IFNULL(w.day_count, 0)), " +
+            "(d.sum_wind + IFNULL(w.avg_wind * w.day_count, 0)) / (d.day_count + IFNULL(w.day_count, 0)) " +
+            "FROM (SELECT " + WeatherEntry.COLUMN_LOC_KEY + " AS location_id, " +
+            "MIN(" + WeatherEntry.COLUMN_DATE + ") - (MIN(local_day) - " + MONDAY_EXPRESSION +
+            ") * " + DAY_IN_MILLIS + " AS week_start, " +
+            "COUNT(*) AS day_count, " +
+            "MIN(" + WeatherEntry.COLUMN_MIN_TEMP + ") AS min, " +
+            "MAX(" + WeatherEntry.COLUMN_MAX_TEMP + ") AS max, " +
+            "TOTAL(" + WeatherEntry.COLUMN_MIN_TEMP + ") AS sum_min, " +
+            "TOTAL(" + WeatherEntry.COLUMN_MAX_TEMP + ") AS sum_max, " +
+            "TOTAL(" + WeatherEntry.COLUMN_HUMIDITY + ") AS sum_humidity, " +
+            "TOTAL(" + WeatherEntry.COLUMN_PRESSURE + ") AS sum_pressure, " +
+            "TOTAL(" + WeatherEntry.COLUMN_WIND_SPEED + ") AS sum_wind " +
+            "FROM (SELECT *, " + LOCAL_DAY_EXPRESSION + " AS local_day FROM " +
+            WeatherDbHelper.VIEW_ARCHIVE_DECODED +
+            " WHERE " + WeatherEntry.COLUMN_DATE + " < ?)" +
+            " GROUP BY location_id, " + MONDAY_EXPRESSION + ") AS d " +
+            "LEFT JOIN " + WeeklyEntry.TABLE_NAME + " AS w ON w." + WeeklyEntry.COLUMN_LOC_KEY +
+            " = d.location_id AND w." + WeeklyEntry.COLUMN_WEEK_START + " = d.week_start";
+
+    private final int mDailyRetentionDays;
+    private final int mWeeklyRetentionWeeks;
+
+    WeatherArchive(int dailyRetentionDays, int weeklyRetentionWeeks) {
+        mDailyRetentionDays = dailyRetentionDays;
+        mWeeklyRetentionWeeks = weeklyRetentionWeeks;
+    }
+
+    /**
+     * Copies the weather rows the selection matches into the archive, replacing any archived
+     * row for the same location and date.  Call before deleting them.
+     *
+     * @return how many rows were archived
+     */
+    long archive(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        db.execSQL("INSERT OR REPLACE INTO " + ArchiveEntry.TABLE_NAME + " (" + ARCHIVED_COLUMNS +
+                ") SELECT " + ARCHIVED_COLUMNS + " FROM " + WeatherEntry.TABLE_NAME +
+                " WHERE " + selection, selectionArgs == null ? new Object[0] : selectionArgs);
+        return DatabaseUtils.longForQuery(db, "SELECT changes()", null);
+    }
+
+    /**
+     * Downsamples and drops whatever has been archived for longer than the retention allows.
+     * Days are only downsampled a whole week at a time, in the device's time zone.
+     */
+    void applyRetention(SQLiteDatabase db, long now) {
+        int today = JulianDay.fromMillis(now);
+        long dailyCutoff = JulianDay.toMillis(getWeekStartDay(today - mDailyRetentionDays));
+        db.execSQL(DOWNSAMPLE_SQL, new Object[]{getDayShift(now), dailyCutoff});
+        db.delete(ArchiveEntry.TABLE_NAME, WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(dailyCutoff)});
+
+        long weeklyCutoff = JulianDay.toMillis(getWeekStartDay(today) - mWeeklyRetentionWeeks * 7);
+        db.delete(WeeklyEntry.TABLE_NAME, WeeklyEntry.COLUMN_WEEK_START + " < ?",
+                new String[]{Long.toString(weeklyCutoff)});
+    }
+
+    /**
+     * @return the julian day of the Monday that starts the julian day's week
+     */
+    static int getWeekStartDay(int julianDay) {
+        return julianDay - julianDay % 7;
+    }
+
+    // What LOCAL_DAY_EXPRESSION adds to a date.  The offset is today's, which is within an hour
+    // of any archived day's unless the zone itself has moved since.
+    private static long getDayShift(long now) {
+        return JulianDay.getOffset(now) + DAY_IN_MILLIS / 2;
+    }
+}
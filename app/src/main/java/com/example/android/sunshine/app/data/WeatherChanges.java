@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of which weather rows a write touched, so observers can be told about just those
+ * rather than the whole table.  The rows are turned into the same Uris the provider is queried
+ * with: weather/[location] for a location that had several days change, or
+ * weather/[location]/[date] for a location that had one.  Cursors are registered for their
+ * descendants, so a list of a location's forecast hears about any of its days, and a day's
+ * detail only hears about that day.
+ */
+class WeatherChanges {
+
+    // The dates written for each location_id
+    private final HashMap<Long, Set<Long>> mDatesByLocation = new HashMap<Long, Set<Long>>();
+    // Set when there's no telling which rows were written
+    private boolean mWholeTable;
+
+    /**
+     * Records the row with this location and date as written.
+     */
+    void add(long locationId, long date) {
+        Set<Long> dates = mDatesByLocation.get(locationId);
+        if (dates == null) {
+            dates = new HashSet<Long>();
+            mDatesByLocation.put(locationId, dates);
+        }
+        dates.add(date);
+    }
+
+    /**
+     * Records the row these values were written to.  Values without the location and date can't
+     * be pinned down to a row, so they count as a change to the whole table.
+     */
+    void add(ContentValues values) {
+        Long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        if (locationId == null || date == null) {
+            mWholeTable = true;
+        } else {
+            add(locationId, date);
+        }
+    }
+
+    /**
+     * Records every row the selection matches.  Call it before the rows are updated or deleted,
+     * in the same transaction.
+     */
+    void addSelected(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(true, WeatherEntry.TABLE_NAME,
+                new String[]{WeatherEntry.COLUMN_LOC_KEY, WeatherEntry.COLUMN_DATE},
+                selection, selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                add(cursor.getLong(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    void addWholeTable() {
+        mWholeTable = true;
+    }
+
+    boolean isEmpty() {
+        return !mWholeTable && mDatesByLocation.isEmpty();
+    }
+
+    /**
+     * @return the Uris to notify for the rows written.  Must be called while the rows' locations
+     * are still in the database, which for a batch means inside its transaction.
+     */
+    List<Uri> getNotificationUris(SQLiteDatabase db) {
+        List<Uri> uris = new ArrayList<Uri>(mDatesByLocation.size());
+        if (mWholeTable) {
+            uris.add(WeatherEntry.CONTENT_URI);
+            return uris;
+        }
+        for (Map.Entry<Long, Set<Long>> entry : mDatesByLocation.entrySet()) {
+            String locationSetting = getLocationSetting(db, entry.getKey());
+            if (locationSetting == null) {
+                // Weather for a location we don't have can't be in anyone's query, but if it
+                // happens, don't risk anyone missing it
+                uris.clear();
+                uris.add(WeatherEntry.CONTENT_URI);
+                return uris;
+            }
+            Set<Long> dates = entry.getValue();
+            if (dates.size() == 1) {
+                uris.add(WeatherEntry.buildWeatherLocationWithDate(locationSetting,
+                        dates.iterator().next()));
+            } else {
+                // Naming each day would have a list of the location's forecast told once for
+                // every one of them
+                uris.add(WeatherEntry.buildWeatherLocation(locationSetting));
+            }
+        }
+        return uris;
+    }
+
+    private static String getLocationSetting(SQLiteDatabase db, long locationId) {
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING},
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationId)},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -19,7 +19,6 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +42,28 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_ARCHIVE = "archive";
+    public static final String PATH_WEEKLY = "weekly";
+    public static final String PATH_STATS = "stats";
+
+    // WeatherProvider.call method that returns a WeatherSummary Bundle for a location's days,
+    // with the location setting as its arg.
+    public static final String METHOD_GET_SUMMARY = "getWeatherSummary";
+    // The first day to summarize, and how many days from there
+    public static final String EXTRA_START_DATE = "start_date";
+    public static final String EXTRA_DAY_COUNT = "day_count";
+
+    // WeatherProvider.call method that returns how long the provider's calls have been taking,
+    // for each kind of Uri, as text in EXTRA_METRICS.  EXTRA_RESET starts the counts over.
+    // Debug builds only.
+    public static final String METHOD_GET_METRICS = "getMetrics";
+    public static final String EXTRA_METRICS = "metrics";
+    public static final String EXTRA_RESET = "reset";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
+    // the database to the start of the the Julian day, see JulianDay.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return JulianDay.normalize(startDate);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -107,7 +119,8 @@ public class WeatherContract {
         public static final String COLUMN_WEATHER_ID = "weather_id";
 
         // Short description and long description of the weather, as provided by API.
-        // e.g "clear" vs "sky is clear".
+        // e.g "clear" vs "sky is clear".  Stored once per weather id in ConditionEntry's table,
+        // and joined back in by the provider.
         public static final String COLUMN_SHORT_DESC = "short_desc";
 
         // Min and max temperatures for the day (stored as floats)
@@ -126,10 +139,96 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameter asking inserts to leave alone any row that already holds the same
+        // values for its location and date, rather than replacing it.
+        public static final String PARAM_UPSERT = "upsert";
+
+        // Query parameter asking deletes to move the rows into the archive, rather than
+        // throwing them away.
+        public static final String PARAM_ARCHIVE = "archive";
+
+        // Query parameter asking for the measurements (temperatures, humidity, pressure, wind
+        // and degrees) as they're stored: whole multiples of 1/FIXED_POINT_SCALE, as integers,
+        // so 15.3 degrees comes back as 153.  Without it they come back as floats.  Works for
+        // the weather and archive Uris.
+        public static final String PARAM_FIXED_POINT = "fixed_point";
+        public static final int FIXED_POINT_SCALE = 10;
+
+        // Query parameters for reading a location's days a page at a time, for the weather,
+        // archive and weekly Uris of a location.  PARAM_LIMIT is how many days a page holds, and
+        // PARAM_AFTER is the last date (or week start) of the page before, so each page picks up
+        // where the last left off without counting its way past the earlier ones.  Pages always
+        // come back in date order, whatever sort order is asked for.
+        public static final String PARAM_LIMIT = "limit";
+        public static final String PARAM_AFTER = "after";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
+        /*
+            Inserting through this Uri only writes the rows that are new or have changed, and
+            bulkInsert returns how many that was.  An update through it does the same for the
+            one row in its values, picked out by their location and date, and returns 1 if it
+            was written.
+         */
+        public static Uri buildWeatherUpsertUri() {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_UPSERT, Boolean.toString(true)).build();
+        }
+
+        public static boolean isUpsertUri(Uri uri) {
+            return Boolean.parseBoolean(uri.getQueryParameter(PARAM_UPSERT));
+        }
+
+        /*
+            Deleting through this Uri moves the rows into ArchiveEntry's table instead.
+         */
+        public static Uri buildWeatherArchivingUri() {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_ARCHIVE, Boolean.toString(true)).build();
+        }
+
+        public static boolean isArchivingUri(Uri uri) {
+            return Boolean.parseBoolean(uri.getQueryParameter(PARAM_ARCHIVE));
+        }
+
+        public static Uri buildFixedPointUri(Uri uri) {
+            return uri.buildUpon()
+                    .appendQueryParameter(PARAM_FIXED_POINT, Boolean.toString(true)).build();
+        }
+
+        public static boolean isFixedPointUri(Uri uri) {
+            return Boolean.parseBoolean(uri.getQueryParameter(PARAM_FIXED_POINT));
+        }
+
+        // The first page of a location's days
+        public static Uri buildPageUri(Uri uri, int limit) {
+            return uri.buildUpon()
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        // The page that follows the one ending on afterDate
+        public static Uri buildPageUri(Uri uri, long afterDate, int limit) {
+            return uri.buildUpon()
+                    .appendQueryParameter(PARAM_AFTER, Long.toString(afterDate))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        // 0 when the Uri isn't for a page
+        public static int getPageLimitFromUri(Uri uri) {
+            String limitString = uri.getQueryParameter(PARAM_LIMIT);
+            if (null != limitString && limitString.length() > 0)
+                return Integer.parseInt(limitString);
+            else
+                return 0;
+        }
+
+        // Long.MIN_VALUE for the first page
+        public static long getPageAfterFromUri(Uri uri) {
+            return getDateParameter(uri, PARAM_AFTER, Long.MIN_VALUE);
+        }
+
         /*
             Student: This is the buildWeatherLocation function you filled in.
          */
@@ -165,4 +264,179 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /*
+        Inner class that defines the table contents of the condition dictionary: the description
+        of each OpenWeatherMap weather id, kept once rather than in every row with that id.
+        There's no Uri for it; the weather and archive queries join it in.
+     */
+    public static final class ConditionEntry {
+
+        public static final String TABLE_NAME = "weather_condition";
+
+        // Weather id as returned by API, the same as WeatherEntry.COLUMN_WEATHER_ID
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_SHORT_DESC = WeatherEntry.COLUMN_SHORT_DESC;
+    }
+
+    /*
+        Inner class that defines the columns of weather statistics: one row of aggregates over
+        a location's weather between two dates, worked out by the database.  Any of the columns
+        can be left out of the projection.
+     */
+    public static final class StatsEntry {
+
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE +
+                "/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER + "/" + PATH_STATS;
+
+        // How many days there are in the range, and the first and last of them
+        public static final String COLUMN_DAY_COUNT = "day_count";
+        public static final String COLUMN_FIRST_DATE = "first_date";
+        public static final String COLUMN_LAST_DATE = "last_date";
+
+        // The lowest and highest temperatures over the range
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+
+        // Averages of the daily temperatures, humidity and wind over the range
+        public static final String COLUMN_AVG_MIN_TEMP = "avg_min";
+        public static final String COLUMN_AVG_MAX_TEMP = "avg_max";
+        public static final String COLUMN_AVG_HUMIDITY = "avg_humidity";
+        public static final String COLUMN_AVG_WIND_SPEED = "avg_wind";
+
+        // The extremes of the humidity and wind over the range
+        public static final String COLUMN_MIN_HUMIDITY = "min_humidity";
+        public static final String COLUMN_MAX_HUMIDITY = "max_humidity";
+        public static final String COLUMN_MAX_WIND_SPEED = "max_wind";
+
+        // Range query parameters, as dates: from start, up to but not including end
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        // From start on, however far the forecast goes
+        public static Uri buildStatsUri(String locationSetting, long start) {
+            return WeatherEntry.CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(PATH_STATS)
+                    .appendQueryParameter(PARAM_START, Long.toString(normalizeDate(start))).build();
+        }
+
+        public static Uri buildStatsUri(String locationSetting, long start, long end) {
+            return WeatherEntry.CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(PATH_STATS)
+                    .appendQueryParameter(PARAM_START, Long.toString(normalizeDate(start)))
+                    .appendQueryParameter(PARAM_END, Long.toString(normalizeDate(end))).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        // 0 when there's no start
+        public static long getStartFromUri(Uri uri) {
+            return getDateParameter(uri, PARAM_START, 0);
+        }
+
+        // Long.MAX_VALUE when there's no end
+        public static long getEndFromUri(Uri uri) {
+            return getDateParameter(uri, PARAM_END, Long.MAX_VALUE);
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the weather archive: the days that have
+        gone by, as they were last forecast.  The columns are the weather table's, and the short
+        description is joined in from the condition dictionary the same way.  Days are kept
+        for a while (R.integer.archive_daily_retention_days), after which they're boiled down
+        into WeeklyEntry's table.
+     */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        public static final String TABLE_NAME = "weather_archive";
+
+        // Range query parameters, as dates: from start, up to but not including end
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        public static Uri buildArchiveLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildArchiveLocationWithRange(String locationSetting, long start,
+                                                        long end) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(normalizeDate(start)))
+                    .appendQueryParameter(PARAM_END, Long.toString(normalizeDate(end))).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        // 0 when there's no start
+        public static long getStartFromUri(Uri uri) {
+            return getDateParameter(uri, PARAM_START, 0);
+        }
+
+        // Long.MAX_VALUE when there's no end
+        public static long getEndFromUri(Uri uri) {
+            return getDateParameter(uri, PARAM_END, Long.MAX_VALUE);
+        }
+    }
+
+    /* Inner class that defines the table contents of the weekly weather archive */
+    public static final class WeeklyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI = ArchiveEntry.CONTENT_URI;
+
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" +
+                CONTENT_AUTHORITY + "/" + PATH_ARCHIVE + "/" + PATH_WEEKLY;
+
+        public static final String TABLE_NAME = "weather_weekly";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // The Monday the week starts on, at local midnight like every other date, in milliseconds
+        // since the epoch
+        public static final String COLUMN_WEEK_START = "week_start";
+        // How many days of the week were archived
+        public static final String COLUMN_DAY_COUNT = "day_count";
+
+        // The lowest and highest temperatures of the week
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+
+        // Averages over the days of the week
+        public static final String COLUMN_AVG_MIN_TEMP = "avg_min";
+        public static final String COLUMN_AVG_MAX_TEMP = "avg_max";
+        public static final String COLUMN_AVG_HUMIDITY = "avg_humidity";
+        public static final String COLUMN_AVG_PRESSURE = "avg_pressure";
+        public static final String COLUMN_AVG_WIND_SPEED = "avg_wind";
+
+        public static Uri buildWeeklyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(PATH_WEEKLY).build();
+        }
+
+        // The range parameters are ArchiveEntry's, compared with the start of the week
+        public static Uri buildWeeklyLocationWithRange(String locationSetting, long start,
+                                                       long end) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(PATH_WEEKLY)
+                    .appendQueryParameter(ArchiveEntry.PARAM_START, Long.toString(start))
+                    .appendQueryParameter(ArchiveEntry.PARAM_END, Long.toString(end)).build();
+        }
+    }
+
+    private static long getDateParameter(Uri uri, String name, long defaultValue) {
+        String dateString = uri.getQueryParameter(name);
+        if (null != dateString && dateString.length() > 0)
+            return Long.parseLong(dateString);
+        else
+            return defaultValue;
+    }
 }
@@ -15,29 +15,125 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.provider.BaseColumns;
 
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.ConditionEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeeklyEntry;
 
 /**
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, and add a
+    // step to migrate() that takes the previous version's database to it.
+    static final int DATABASE_VERSION = 6;
+
+    // The oldest version migrate() knows how to bring up to date.  Anything older is dropped.
+    private static final int OLDEST_MIGRATABLE_VERSION = 2;
+
+    // Forecasts are looked up by location, then date, which the UNIQUE (date, location_id)
+    // index is the wrong way round for
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+
+    // The weather and archive tables with their measurements divided back down from tenths,
+    // see FixedPoint.  SQLite keeps a view when its table is dropped, and won't rename a table
+    // while a view refers to the one it replaces, so rebuildTable drops the table's view first
+    // and makes it again afterwards.
+    static final String VIEW_WEATHER_DECODED = "weather_decoded";
+    static final String VIEW_ARCHIVE_DECODED = "weather_archive_decoded";
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Write-ahead logging lets the loaders and widgets keep reading the last committed forecast
+    // while the sync adapter writes the next one, instead of waiting for its transaction.
+    // SQLiteDatabase gives WAL databases a small pool of read connections; how many is the
+    // platform's call, not ours.
+    private final boolean mWriteAheadLogging;
+    private final int mAutoCheckpointPages;
+    private final int mJournalSizeLimit;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        Resources resources = context.getResources();
+        mWriteAheadLogging = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && resources.getBoolean(R.bool.database_write_ahead_logging);
+        mAutoCheckpointPages = resources.getInteger(R.integer.database_wal_autocheckpoint_pages);
+        mJournalSizeLimit = resources.getInteger(R.integer.database_wal_size_limit_bytes);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLogging();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void setWriteAheadLogging() {
+        // From Jelly Bean the journal mode is set before the database is opened, which also
+        // switches it back off for a database that was left in WAL mode.
+        setWriteAheadLoggingEnabled(mWriteAheadLogging);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!mWriteAheadLogging || db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLogging(db);
+        }
+        runPragma(db, "PRAGMA wal_autocheckpoint=" + mAutoCheckpointPages);
+        runPragma(db, "PRAGMA journal_size_limit=" + mJournalSizeLimit);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLogging(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
+    /**
+     * Copies what it can of the write-ahead log back into the database without waiting on, or
+     * holding up, any readers.  Worth doing after a large write, while the app is idle, so the
+     * next reads don't have to look through the log.  Does nothing unless WAL is on.
+     */
+    void checkpoint(SQLiteDatabase db) {
+        if (mWriteAheadLogging && !db.inTransaction()) {
+            runPragma(db, "PRAGMA wal_checkpoint(PASSIVE)");
+        }
+    }
+
+    // PRAGMAs that return a row upset execSQL on some releases, so run them as queries
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        // A new database is made the same way an old one is brought up to date, so there's only
+        // one way for the schema to end up: version 2's tables, then every step since.
+        createVersion2Tables(sqLiteDatabase);
+        for (int version = OLDEST_MIGRATABLE_VERSION + 1; version <= DATABASE_VERSION; version++) {
+            migrate(sqLiteDatabase, version);
+        }
+    }
+
+    private static void createVersion2Tables(SQLiteDatabase sqLiteDatabase) {
         // Create a table to hold locations.  A location consists of the string supplied in the
         // location setting, the city name, and the latitude and longitude
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
@@ -85,14 +181,237 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
+        // This database is only a cache for online data, but throwing it away on an app update
+        // means every install fetching every location at once, and nothing to show until it's
+        // done.  So each version's changes are applied in turn, keeping the data.
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        // onUpgrade already runs inside a transaction, so a failed step leaves the old database.
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION) {
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            migrate(sqLiteDatabase, version);
+        }
+    }
+
+    /**
+     * Takes the database from the version before toVersion up to toVersion.  Steps must keep
+     * the data, and only use SQL that works on every release we support.
+     */
+    private static void migrate(SQLiteDatabase sqLiteDatabase, int toVersion) {
+        switch (toVersion) {
+            case 3:
+                createWeatherIndex(sqLiteDatabase);
+                break;
+            case 4:
+                // Past days, laid out like the weather table.  The UNIQUE key is location first,
+                // so it's also the index for range queries on a location's history.
+                sqLiteDatabase.execSQL("CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+                        ArchiveEntry._ID + " INTEGER PRIMARY KEY," +
+                        WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                        WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                        WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                        WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                        WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                        " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                        LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                        " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                        WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);");
+                sqLiteDatabase.execSQL("CREATE TABLE " + WeeklyEntry.TABLE_NAME + " (" +
+                        WeeklyEntry._ID + " INTEGER PRIMARY KEY," +
+                        WeeklyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                        WeeklyEntry.COLUMN_WEEK_START + " INTEGER NOT NULL, " +
+                        WeeklyEntry.COLUMN_DAY_COUNT + " INTEGER NOT NULL, " +
+                        WeeklyEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                        WeeklyEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                        WeeklyEntry.COLUMN_AVG_MIN_TEMP + " REAL NOT NULL, " +
+                        WeeklyEntry.COLUMN_AVG_MAX_TEMP + " REAL NOT NULL, " +
+                        WeeklyEntry.COLUMN_AVG_HUMIDITY + " REAL NOT NULL, " +
+                        WeeklyEntry.COLUMN_AVG_PRESSURE + " REAL NOT NULL, " +
+                        WeeklyEntry.COLUMN_AVG_WIND_SPEED + " REAL NOT NULL, " +
+                        " FOREIGN KEY (" + WeeklyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                        LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                        " UNIQUE (" + WeeklyEntry.COLUMN_LOC_KEY + ", " +
+                        WeeklyEntry.COLUMN_WEEK_START + ") ON CONFLICT REPLACE);");
+                break;
+            case 5:
+                // Each condition's description is kept once, keyed by its weather id, instead
+                // of in every weather and archive row with that id
+                sqLiteDatabase.execSQL("CREATE TABLE " + ConditionEntry.TABLE_NAME + " (" +
+                        ConditionEntry.COLUMN_WEATHER_ID + " INTEGER PRIMARY KEY," +
+                        ConditionEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL);");
+                // Weather before the archive, and newest rows first, so a condition whose
+                // description has changed keeps the latest one
+                fillConditions(sqLiteDatabase, WeatherEntry.TABLE_NAME);
+                fillConditions(sqLiteDatabase, ArchiveEntry.TABLE_NAME);
+
+                // SQLite can't drop a column, so both tables are copied without it
+                rebuildTable(sqLiteDatabase, WeatherEntry.TABLE_NAME,
+                        weatherTableDefinition(WEATHER_COLUMNS_V5),
+                        WEATHER_COLUMN_NAMES_V5, WEATHER_COLUMN_NAMES_V5);
+                createWeatherIndex(sqLiteDatabase);
+                rebuildTable(sqLiteDatabase, ArchiveEntry.TABLE_NAME,
+                        archiveTableDefinition(WEATHER_COLUMNS_V5),
+                        WEATHER_COLUMN_NAMES_V5, WEATHER_COLUMN_NAMES_V5);
+                break;
+            case 6:
+                // Measurements go from REAL to whole tenths in INTEGER columns, see FixedPoint
+                rebuildTable(sqLiteDatabase, WeatherEntry.TABLE_NAME,
+                        weatherTableDefinition(WEATHER_COLUMNS_V6),
+                        WEATHER_COLUMN_NAMES_V5, ENCODE_WEATHER_COLUMNS_V6);
+                createWeatherIndex(sqLiteDatabase);
+                rebuildTable(sqLiteDatabase, ArchiveEntry.TABLE_NAME,
+                        archiveTableDefinition(WEATHER_COLUMNS_V6),
+                        WEATHER_COLUMN_NAMES_V5, ENCODE_WEATHER_COLUMNS_V6);
+                createDecodedView(sqLiteDatabase, VIEW_WEATHER_DECODED, WeatherEntry.TABLE_NAME);
+                createDecodedView(sqLiteDatabase, VIEW_ARCHIVE_DECODED, ArchiveEntry.TABLE_NAME);
+                break;
+            default:
+                throw new IllegalStateException("No migration to version " + toVersion);
+        }
+    }
+
+    // The weather and archive tables' columns from version 5, after the _ID
+    private static final String WEATHER_COLUMNS_V5 =
+            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, ";
+
+    // Version 6's columns, the same but with the measurements in tenths
+    private static final String WEATHER_COLUMNS_V6 =
+            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+            WeatherEntry.COLUMN_MIN_TEMP + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_DEGREES + " INTEGER NOT NULL, ";
+
+    // Version 5's rows as version 6 stores them
+    private static final String ENCODE_WEATHER_COLUMNS_V6 =
+            BaseColumns._ID + ", " +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            FixedPoint.encodeSql(WeatherEntry.COLUMN_MIN_TEMP) + ", " +
+            FixedPoint.encodeSql(WeatherEntry.COLUMN_MAX_TEMP) + ", " +
+            FixedPoint.encodeSql(WeatherEntry.COLUMN_HUMIDITY) + ", " +
+            FixedPoint.encodeSql(WeatherEntry.COLUMN_PRESSURE) + ", " +
+            FixedPoint.encodeSql(WeatherEntry.COLUMN_WIND_SPEED) + ", " +
+            FixedPoint.encodeSql(WeatherEntry.COLUMN_DEGREES);
+
+    private static final String WEATHER_COLUMN_NAMES_V5 =
+            BaseColumns._ID + ", " +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES;
+
+    private static void fillConditions(SQLiteDatabase sqLiteDatabase, String table) {
+        sqLiteDatabase.execSQL("INSERT OR IGNORE INTO " + ConditionEntry.TABLE_NAME + " (" +
+                ConditionEntry.COLUMN_WEATHER_ID + ", " + ConditionEntry.COLUMN_SHORT_DESC +
+                ") SELECT " + WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + " FROM " + table +
+                " ORDER BY " + BaseColumns._ID + " DESC");
+    }
+
+    // The weather table from version 5, given the columns after the _ID
+    private static String weatherTableDefinition(String columns) {
+        return "(" +
+                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                columns +
+                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                " FOREIGN KEY (" + WeatherEntry.COLUMN_WEATHER_ID + ") REFERENCES " +
+                ConditionEntry.TABLE_NAME + " (" + ConditionEntry.COLUMN_WEATHER_ID + "), " +
+                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+    }
+
+    // The archive table from version 5, given the columns after the _ID
+    private static String archiveTableDefinition(String columns) {
+        return "(" +
+                ArchiveEntry._ID + " INTEGER PRIMARY KEY," +
+                columns +
+                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                " FOREIGN KEY (" + WeatherEntry.COLUMN_WEATHER_ID + ") REFERENCES " +
+                ConditionEntry.TABLE_NAME + " (" + ConditionEntry.COLUMN_WEATHER_ID + "), " +
+                " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+    }
+
+    private static void createWeatherIndex(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX " + INDEX_WEATHER_LOCATION_DATE +
+                " ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");");
+    }
+
+    private static void createDecodedView(SQLiteDatabase sqLiteDatabase, String view,
+                                          String table) {
+        StringBuilder sql = new StringBuilder("CREATE VIEW ").append(view).append(" AS SELECT ")
+                .append(BaseColumns._ID).append(", ")
+                .append(WeatherEntry.COLUMN_LOC_KEY).append(", ")
+                .append(WeatherEntry.COLUMN_DATE).append(", ")
+                .append(WeatherEntry.COLUMN_WEATHER_ID);
+        for (String column : FixedPoint.COLUMNS) {
+            sql.append(", ").append(FixedPoint.decodeSql(column)).append(" AS ").append(column);
+        }
+        sqLiteDatabase.execSQL(sql.append(" FROM ").append(table).toString());
+    }
+
+    // Swaps the weather or archive table for one made from the definition, copying every row
+    // across with its _ID: the select's values go into the columns named.  The old table's
+    // indexes go with it.  Its decoded view, if it has one yet, is dropped and made again over
+    // the new table.
+    static void rebuildTable(SQLiteDatabase sqLiteDatabase, String table,
+                             String definition, String columns, String select) {
+        String view = getDecodedView(table);
+        boolean hasView = DatabaseUtils.longForQuery(sqLiteDatabase,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'view' AND name = ?",
+                new String[]{view}) > 0;
+        sqLiteDatabase.execSQL("DROP VIEW IF EXISTS " + view);
+
+        String newTable = table + "_new";
+        sqLiteDatabase.execSQL("CREATE TABLE " + newTable + " " + definition);
+        sqLiteDatabase.execSQL("INSERT INTO " + newTable + " (" + columns +
+                ") SELECT " + select + " FROM " + table);
+        sqLiteDatabase.execSQL("DROP TABLE " + table);
+        sqLiteDatabase.execSQL("ALTER TABLE " + newTable + " RENAME TO " + table);
+
+        if (hasView) {
+            createDecodedView(sqLiteDatabase, view, table);
+        }
+    }
+
+    private static String getDecodedView(String table) {
+        if (WeatherEntry.TABLE_NAME.equals(table)) {
+            return VIEW_WEATHER_DECODED;
+        } else if (ArchiveEntry.TABLE_NAME.equals(table)) {
+            return VIEW_ARCHIVE_DECODED;
+        }
+        throw new IllegalArgumentException("No decoded view for " + table);
     }
 }
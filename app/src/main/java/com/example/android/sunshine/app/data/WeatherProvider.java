@@ -17,38 +17,236 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.provider.BaseColumns;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.R;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
+    // Enough for each location's forecast list and a few of its days
+    private static final int QUERY_CACHE_ENTRIES = 32;
+    // A forecast is 14 days; anything much bigger isn't one of the queries asked over and over
+    private static final int QUERY_CACHE_MAX_ROWS = 64;
+
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private WeatherArchive mArchive;
+    // Null before Honeycomb, see QueryCache
+    private QueryCache mQueryCache;
+    private ProviderMetrics mMetrics;
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_STATS = 103;
     static final int LOCATION = 300;
+    static final int ARCHIVE = 400;
+    static final int ARCHIVE_WITH_LOCATION = 401;
+    static final int ARCHIVE_WEEKLY_WITH_LOCATION = 402;
 
+    private static final SQLiteQueryBuilder sWeatherQueryBuilder;
+    private static final SQLiteQueryBuilder sArchiveQueryBuilder;
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sArchiveByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sWeeklyByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sStatsByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sFixedPointWeatherQueryBuilder;
+    private static final SQLiteQueryBuilder sFixedPointArchiveQueryBuilder;
+    private static final SQLiteQueryBuilder sFixedPointWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sFixedPointArchiveByLocationSettingQueryBuilder;
+
+    /**
+     * What applyBatch is holding on to while it runs the operations on its thread.
+     */
+    private static class Batch {
+        // Sent once the whole batch has committed
+        final HashSet<Uri> notifications = new HashSet<Uri>();
+        // Shared by every weather upsert in the batch, so the statements are compiled once
+        CompiledTableWriter weatherWriter;
+        ConditionDictionary conditions;
+        // New location IDs, for LocationIdCache once they're committed
+        final HashMap<String, Long> insertedLocations = new HashMap<String, Long>();
+        boolean locationsChanged;
+    }
+
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
+
+    // The short description lives in the condition dictionary, so every query that can ask for
+    // it joins that in.  USING leaves a single weather_id column, so it can still be asked for
+    // without naming a table.
+    //LEFT JOIN weather_condition USING (weather_id)
+    private static final String sConditionJoin = " LEFT JOIN " +
+            WeatherContract.ConditionEntry.TABLE_NAME +
+            " USING (" + WeatherContract.ConditionEntry.COLUMN_WEATHER_ID + ")";
+
+    // Measurements are stored in tenths (see FixedPoint), so rows are read through the views
+    // that divide them back down.  Each view goes by its table's name, so "weather._id" and
+    // the like still work in projections and selections.
+    //weather_decoded AS weather
+    private static final String sDecodedWeather = WeatherDbHelper.VIEW_WEATHER_DECODED +
+            " AS " + WeatherContract.WeatherEntry.TABLE_NAME;
+    //weather_archive_decoded AS weather_archive
+    private static final String sDecodedArchive = WeatherDbHelper.VIEW_ARCHIVE_DECODED +
+            " AS " + WeatherContract.ArchiveEntry.TABLE_NAME;
+
+    //INNER JOIN location ON weather.location_id = location._id
+    private static final String sWeatherLocationJoin = " INNER JOIN " +
+            WeatherContract.LocationEntry.TABLE_NAME +
+            " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
+            "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+            " = " + WeatherContract.LocationEntry.TABLE_NAME +
+            "." + WeatherContract.LocationEntry._ID;
+
+    //INNER JOIN location ON weather_archive.location_id = location._id
+    private static final String sArchiveLocationJoin = " INNER JOIN " +
+            WeatherContract.LocationEntry.TABLE_NAME +
+            " ON " + WeatherContract.ArchiveEntry.TABLE_NAME +
+            "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+            " = " + WeatherContract.LocationEntry.TABLE_NAME +
+            "." + WeatherContract.LocationEntry._ID;
+
+    // Update and delete selections are written against the measurements as they read back, not
+    // the tenths they're stored in, so one that mentions a measurement picks its rows out of the
+    // decoded view by _id.  A PARAM_FIXED_POINT Uri's selection is taken as it is, in tenths.
+    //_id IN (SELECT _id FROM weather_decoded AS weather WHERE (selection))
+    private static String decodeSelection(Uri uri, String decodedTable, String selection) {
+        if (selection == null || WeatherContract.WeatherEntry.isFixedPointUri(uri) ||
+                !FixedPoint.mentionsMeasurement(selection)) {
+            return selection;
+        }
+        return BaseColumns._ID + " IN (SELECT " + BaseColumns._ID + " FROM " + decodedTable +
+                " WHERE (" + selection + "))";
+    }
 
     static{
+        //weather_decoded AS weather LEFT JOIN weather_condition USING (weather_id)
+        sWeatherQueryBuilder = new SQLiteQueryBuilder();
+        sWeatherQueryBuilder.setTables(sDecodedWeather + sConditionJoin);
+
+        //weather_archive_decoded AS weather_archive LEFT JOIN weather_condition USING (weather_id)
+        sArchiveQueryBuilder = new SQLiteQueryBuilder();
+        sArchiveQueryBuilder.setTables(sDecodedArchive + sConditionJoin);
+
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
         
         //This is an inner join which looks like
-        //weather INNER JOIN location ON weather.location_id = location._id
+        //weather_decoded AS weather INNER JOIN location ON weather.location_id = location._id
+        //    LEFT JOIN weather_condition USING (weather_id)
         sWeatherByLocationSettingQueryBuilder.setTables(
-                WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
+                sDecodedWeather + sWeatherLocationJoin + sConditionJoin);
+
+        //weather_archive_decoded AS weather_archive INNER JOIN location
+        //    ON weather_archive.location_id = location._id
+        //    LEFT JOIN weather_condition USING (weather_id)
+        sArchiveByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sArchiveByLocationSettingQueryBuilder.setTables(
+                sDecodedArchive + sArchiveLocationJoin + sConditionJoin);
+
+        // The same four straight from the tables, for PARAM_FIXED_POINT
+        sFixedPointWeatherQueryBuilder = new SQLiteQueryBuilder();
+        sFixedPointWeatherQueryBuilder.setTables(
+                WeatherContract.WeatherEntry.TABLE_NAME + sConditionJoin);
+        sFixedPointArchiveQueryBuilder = new SQLiteQueryBuilder();
+        sFixedPointArchiveQueryBuilder.setTables(
+                WeatherContract.ArchiveEntry.TABLE_NAME + sConditionJoin);
+        sFixedPointWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sFixedPointWeatherByLocationSettingQueryBuilder.setTables(
+                WeatherContract.WeatherEntry.TABLE_NAME + sWeatherLocationJoin + sConditionJoin);
+        sFixedPointArchiveByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sFixedPointArchiveByLocationSettingQueryBuilder.setTables(
+                WeatherContract.ArchiveEntry.TABLE_NAME + sArchiveLocationJoin + sConditionJoin);
+
+        //weather_weekly INNER JOIN location ON weather_weekly.location_id = location._id
+        sWeeklyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sWeeklyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.WeeklyEntry.TABLE_NAME + " INNER JOIN " +
                         WeatherContract.LocationEntry.TABLE_NAME +
-                        " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
-                        "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                        " ON " + WeatherContract.WeeklyEntry.TABLE_NAME +
+                        "." + WeatherContract.WeeklyEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        // The weather join again, but with each stats column standing for its aggregate, so
+        // asking for "avg_max" selects AVG(max) / 10.0 AS avg_max.  The aggregates work on the
+        // stored tenths and only the result is divided down.
+        sStatsByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sStatsByLocationSettingQueryBuilder.setTables(
+                WeatherContract.WeatherEntry.TABLE_NAME + sWeatherLocationJoin);
+        HashMap<String, String> statsColumns = new HashMap<String, String>();
+        putAggregate(statsColumns, WeatherContract.StatsEntry.COLUMN_DAY_COUNT, "COUNT(*)");
+        putAggregate(statsColumns, WeatherContract.StatsEntry.COLUMN_FIRST_DATE,
+                "MIN(" + WeatherContract.WeatherEntry.COLUMN_DATE + ")");
+        putAggregate(statsColumns, WeatherContract.StatsEntry.COLUMN_LAST_DATE,
+                "MAX(" + WeatherContract.WeatherEntry.COLUMN_DATE + ")");
+        putAggregate(statsColumns, WeatherContract.StatsEntry.COLUMN_MIN_TEMP,
+                FixedPoint.decodeSql("MIN(" +
+                        WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ")"));
+        putAggregate(statsColumns, WeatherContract.StatsEntry.COLUMN_MAX_TEMP,
+                FixedPoint.decodeSql("MAX(" +
+                        WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ")"));
+        putAggregate(statsColumns, WeatherContract.StatsEntry.COLUMN_AVG_MIN_TEMP,
+                FixedPoint.decodeSql("AVG(" +
+                        WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ")"));
+        putAggregate(statsColumns, WeatherContract.StatsEntry.COLUMN_AVG_MAX_TEMP,
+                FixedPoint.decodeSql("AVG(" +
+                        WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ")"));
+        putAggregate(statsColumns, WeatherContract.StatsEntry.COLUMN_AVG_HUMIDITY,
+                FixedPoint.decodeSql("AVG(" +
+                        WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ")"));
+        putAggregate(statsColumns, WeatherContract.StatsEntry.COLUMN_MIN_HUMIDITY,
+                FixedPoint.decodeSql("MIN(" +
+                        WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ")"));
+        putAggregate(statsColumns, WeatherContract.StatsEntry.COLUMN_MAX_HUMIDITY,
+                FixedPoint.decodeSql("MAX(" +
+                        WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ")"));
+        putAggregate(statsColumns, WeatherContract.StatsEntry.COLUMN_AVG_WIND_SPEED,
+                FixedPoint.decodeSql("AVG(" +
+                        WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ")"));
+        putAggregate(statsColumns, WeatherContract.StatsEntry.COLUMN_MAX_WIND_SPEED,
+                FixedPoint.decodeSql("MAX(" +
+                        WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ")"));
+        sStatsByLocationSettingQueryBuilder.setProjectionMap(statsColumns);
+    }
+
+    // The weather join, as the table stores it if the Uri asks for PARAM_FIXED_POINT
+    private static SQLiteQueryBuilder getWeatherByLocationSettingQueryBuilder(Uri uri) {
+        return WeatherContract.WeatherEntry.isFixedPointUri(uri)
+                ? sFixedPointWeatherByLocationSettingQueryBuilder
+                : sWeatherByLocationSettingQueryBuilder;
+    }
+
+    private static void putAggregate(HashMap<String, String> columns, String column,
+                                     String aggregate) {
+        columns.put(column, aggregate + " AS " + column);
     }
 
     //location.location_setting = ?
@@ -83,13 +281,95 @@ public class WeatherProvider extends ContentProvider {
             selection = sLocationSettingWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        int limit = WeatherContract.WeatherEntry.getPageLimitFromUri(uri);
+        if (limit > 0) {
+            String key = WeatherContract.WeatherEntry.COLUMN_DATE;
+            selection = selection + sPageSelection(key);
+            selectionArgs = appendPageArg(selectionArgs, uri);
+            sortOrder = key + " ASC";
+        }
+
+        return getWeatherByLocationSettingQueryBuilder(uri).query(mOpenHelper.getReadableDatabase(),
                 projection,
                 selection,
                 selectionArgs,
                 null,
                 null,
-                sortOrder
+                sortOrder,
+                limit > 0 ? Integer.toString(limit) : null
+        );
+    }
+
+    // AND date > ?, for the page after the one that ended on that date.  Each location has
+    // one row per date (or week), and the date index starts with the location, so a page is a
+    // seek and a short scan however far into the range it is.
+    private static String sPageSelection(String keyColumn) {
+        return "AND " + keyColumn + " > ? ";
+    }
+
+    private static String[] appendPageArg(String[] selectionArgs, Uri uri) {
+        String[] pageArgs = new String[selectionArgs.length + 1];
+        System.arraycopy(selectionArgs, 0, pageArgs, 0, selectionArgs.length);
+        pageArgs[selectionArgs.length] =
+                Long.toString(WeatherContract.WeatherEntry.getPageAfterFromUri(uri));
+        return pageArgs;
+    }
+
+    //location.location_setting = ? AND date >= ? AND date < ?
+    private static final String sLocationSettingWithDateRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " < ? ";
+
+    //location.location_setting = ? AND week_start >= ? AND week_start < ?
+    private static final String sLocationSettingWithWeekRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeeklyEntry.COLUMN_WEEK_START + " >= ? AND " +
+                    WeatherContract.WeeklyEntry.COLUMN_WEEK_START + " < ? ";
+
+    private Cursor getArchiveByLocationSetting(SQLiteQueryBuilder builder, String rangeSelection,
+                                               String keyColumn, Uri uri, String[] projection,
+                                               String sortOrder) {
+        String locationSetting = WeatherContract.ArchiveEntry.getLocationSettingFromUri(uri);
+        long start = WeatherContract.ArchiveEntry.getStartFromUri(uri);
+        long end = WeatherContract.ArchiveEntry.getEndFromUri(uri);
+
+        String selection = rangeSelection;
+        String[] selectionArgs =
+                new String[]{locationSetting, Long.toString(start), Long.toString(end)};
+        int limit = WeatherContract.WeatherEntry.getPageLimitFromUri(uri);
+        if (limit > 0) {
+            selection = selection + sPageSelection(keyColumn);
+            selectionArgs = appendPageArg(selectionArgs, uri);
+            sortOrder = keyColumn + " ASC";
+        }
+
+        return builder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder,
+                limit > 0 ? Integer.toString(limit) : null
+        );
+    }
+
+    private Cursor getWeatherStatsByLocationSetting(Uri uri, String[] projection) {
+        String locationSetting = WeatherContract.StatsEntry.getLocationSettingFromUri(uri);
+        long start = WeatherContract.StatsEntry.getStartFromUri(uri);
+        long end = WeatherContract.StatsEntry.getEndFromUri(uri);
+
+        // With no GROUP BY, this is always exactly one row, even over no days at all
+        return sStatsByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingWithDateRangeSelection,
+                new String[]{locationSetting, Long.toString(start), Long.toString(end)},
+                null,
+                null,
+                null
         );
     }
 
@@ -98,7 +378,7 @@ public class WeatherProvider extends ContentProvider {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return getWeatherByLocationSettingQueryBuilder(uri).query(mOpenHelper.getReadableDatabase(),
                 projection,
                 sLocationSettingAndDaySelection,
                 new String[]{locationSetting, Long.toString(date)},
@@ -128,11 +408,34 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_STATS,
+                WEATHER_STATS);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE, ARCHIVE);
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE + "/*", ARCHIVE_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE + "/*/" + WeatherContract.PATH_WEEKLY,
+                ARCHIVE_WEEKLY_WITH_LOCATION);
         return matcher;
     }
 
+    // The paths buildUriMatcher matches, by code, for ProviderMetrics
+    static SparseArray<String> buildMatchNames() {
+        SparseArray<String> names = new SparseArray<String>();
+        names.put(UriMatcher.NO_MATCH, "batch");
+        names.put(WEATHER, WeatherContract.PATH_WEATHER);
+        names.put(WEATHER_WITH_LOCATION, WeatherContract.PATH_WEATHER + "/*");
+        names.put(WEATHER_WITH_LOCATION_AND_DATE, WeatherContract.PATH_WEATHER + "/*/#");
+        names.put(WEATHER_STATS, WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_STATS);
+        names.put(LOCATION, WeatherContract.PATH_LOCATION);
+        names.put(ARCHIVE, WeatherContract.PATH_ARCHIVE);
+        names.put(ARCHIVE_WITH_LOCATION, WeatherContract.PATH_ARCHIVE + "/*");
+        names.put(ARCHIVE_WEEKLY_WITH_LOCATION,
+                WeatherContract.PATH_ARCHIVE + "/*/" + WeatherContract.PATH_WEEKLY);
+        return names;
+    }
+
     /*
         Students: We've coded this for you.  We just create a new WeatherDbHelper for later use
         here.
@@ -140,6 +443,13 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        mArchive = new WeatherArchive(
+                getContext().getResources().getInteger(R.integer.archive_daily_retention_days),
+                getContext().getResources().getInteger(R.integer.archive_weekly_retention_weeks));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            mQueryCache = new QueryCache(QUERY_CACHE_ENTRIES, QUERY_CACHE_MAX_ROWS);
+        }
+        mMetrics = new ProviderMetrics(buildMatchNames());
         return true;
     }
 
@@ -160,10 +470,17 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_STATS:
+                return WeatherContract.StatsEntry.CONTENT_ITEM_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case ARCHIVE:
+            case ARCHIVE_WITH_LOCATION:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
+            case ARCHIVE_WEEKLY_WITH_LOCATION:
+                return WeatherContract.WeeklyEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,16 +489,57 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        final int match = sUriMatcher.match(uri);
+        long start = mMetrics.start();
+        try {
+            return query(match, uri, projection, selection, selectionArgs, sortOrder);
+        } finally {
+            // No rows: counting them would fill the window here, where whoever asked might
+            // only have wanted a page of it, or none
+            mMetrics.record(match, ProviderMetrics.OP_QUERY, start, 0);
+        }
+    }
+
+    private Cursor query(int match, Uri uri, String[] projection, String selection,
+                         String[] selectionArgs, String sortOrder) {
+        // Stats are worked out from every day of the location, so they need to hear about a
+        // change to any of them
+        Uri notificationUri = match == WEATHER_STATS
+                ? WeatherContract.WeatherEntry.buildWeatherLocation(
+                        WeatherContract.StatsEntry.getLocationSettingFromUri(uri))
+                : uri;
+
+        // The same day or forecast for a location gets asked for from all over, so those are
+        // answered from memory when they haven't changed since last time
+        boolean cacheable = mQueryCache != null && (match == WEATHER_WITH_LOCATION_AND_DATE ||
+                match == WEATHER_WITH_LOCATION || match == WEATHER_STATS);
+        String cacheKey = null;
+        long cacheGeneration = 0;
+        if (cacheable) {
+            cacheKey = QueryCache.buildKey(uri, projection, selection, selectionArgs, sortOrder);
+            Cursor cached = mQueryCache.get(cacheKey);
+            if (cached != null) {
+                cached.setNotificationUri(getContext().getContentResolver(), notificationUri);
+                return cached;
+            }
+            cacheGeneration = mQueryCache.getGeneration();
+        }
+
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
                 retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
                 break;
             }
+            // "weather/*/stats"
+            case WEATHER_STATS: {
+                retCursor = getWeatherStatsByLocationSetting(uri, projection);
+                break;
+            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
                 retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
@@ -189,8 +547,9 @@ public class WeatherProvider extends ContentProvider {
             }
             // "weather"
             case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
+                SQLiteQueryBuilder builder = WeatherContract.WeatherEntry.isFixedPointUri(uri)
+                        ? sFixedPointWeatherQueryBuilder : sWeatherQueryBuilder;
+                retCursor = builder.query(mOpenHelper.getReadableDatabase(),
                         projection,
                         selection,
                         selectionArgs,
@@ -213,31 +572,142 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "archive"
+            case ARCHIVE: {
+                SQLiteQueryBuilder builder = WeatherContract.WeatherEntry.isFixedPointUri(uri)
+                        ? sFixedPointArchiveQueryBuilder : sArchiveQueryBuilder;
+                retCursor = builder.query(mOpenHelper.getReadableDatabase(),
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "archive/*"
+            case ARCHIVE_WITH_LOCATION: {
+                SQLiteQueryBuilder builder = WeatherContract.WeatherEntry.isFixedPointUri(uri)
+                        ? sFixedPointArchiveByLocationSettingQueryBuilder
+                        : sArchiveByLocationSettingQueryBuilder;
+                retCursor = getArchiveByLocationSetting(builder,
+                        sLocationSettingWithDateRangeSelection,
+                        WeatherContract.WeatherEntry.COLUMN_DATE, uri, projection, sortOrder);
+                break;
+            }
+            // "archive/*/weekly"
+            case ARCHIVE_WEEKLY_WITH_LOCATION: {
+                retCursor = getArchiveByLocationSetting(sWeeklyByLocationSettingQueryBuilder,
+                        sLocationSettingWithWeekRangeSelection,
+                        WeatherContract.WeeklyEntry.COLUMN_WEEK_START, uri, projection, sortOrder);
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        if (cacheable) {
+            retCursor = mQueryCache.put(cacheKey, notificationUri, cacheGeneration, retCursor);
+        }
+        retCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return retCursor;
     }
 
+    /**
+     * Answers METHOD_GET_SUMMARY with a WeatherSummary Bundle: just the values a widget or
+     * notification shows, for as many days as were asked for.  It goes through query, so it
+     * gets answered from the query cache just the same.
+     */
+    @Override
+    @TargetApi(11)
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (BuildConfig.DEBUG && WeatherContract.METHOD_GET_METRICS.equals(method)) {
+            return getMetrics(extras != null && extras.getBoolean(WeatherContract.EXTRA_RESET));
+        }
+        if (!WeatherContract.METHOD_GET_SUMMARY.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        if (arg == null || extras == null) {
+            throw new IllegalArgumentException("Location and start date are required");
+        }
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(arg,
+                extras.getLong(WeatherContract.EXTRA_START_DATE));
+        Cursor cursor = query(uri, WeatherSummary.COLUMNS, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            return WeatherSummary.toBundle(cursor, extras.getInt(WeatherContract.EXTRA_DAY_COUNT, 1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Answers METHOD_GET_METRICS with the dump of ProviderMetrics, which is also what
+     * dumpsys prints for the provider.  Only debug builds answer it, since any app can call.
+     */
+    private Bundle getMetrics(boolean reset) {
+        StringWriter metrics = new StringWriter();
+        PrintWriter writer = new PrintWriter(metrics);
+        mMetrics.dump(writer);
+        writer.flush();
+        if (reset) {
+            mMetrics.reset();
+        }
+        Bundle bundle = new Bundle();
+        bundle.putString(WeatherContract.EXTRA_METRICS, metrics.toString());
+        return bundle;
+    }
+
+    // adb shell dumpsys activity provider com.example.android.sunshine.app/.data.WeatherProvider
+    @Override
+    @TargetApi(18)
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+        if (mQueryCache != null) {
+            writer.println("Query cache " + mQueryCache.getStats());
+        }
+    }
+
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        long start = mMetrics.start();
+        Uri returnUri = null;
+        try {
+            returnUri = insert(match, uri, values);
+            return returnUri;
+        } finally {
+            mMetrics.record(match, ProviderMetrics.OP_INSERT, start, returnUri != null ? 1 : 0);
+        }
+    }
+
+    private Uri insert(int match, Uri uri, ContentValues values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         Uri returnUri;
 
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                WeatherChanges changes = new WeatherChanges();
+                long _id;
+                beginTransaction(db);
+                try {
+                    _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                            FixedPoint.encode(internCondition(db, values, changes)));
+                    db.setTransactionSuccessful();
+                } finally {
+                    endTransaction(db);
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                changes.add(values);
+                notifyWeatherChanges(db, changes);
                 break;
             }
             case LOCATION: {
@@ -246,38 +716,103 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                onLocationInserted(values, _id);
+                notifyChange(uri);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
         return returnUri;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        long start = mMetrics.start();
+        int rowsDeleted = 0;
+        try {
+            rowsDeleted = delete(match, uri, selection, selectionArgs);
+            return rowsDeleted;
+        } finally {
+            mMetrics.record(match, ProviderMetrics.OP_DELETE, start, rowsDeleted);
+        }
+    }
+
+    private int delete(int match, Uri uri, String selection, String[] selectionArgs) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         int rowsDeleted;
-        // this makes delete all rows return the number of rows deleted
-        if ( null == selection ) selection = "1";
         switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+            case WEATHER: {
+                selection = decodeSelection(uri, sDecodedWeather, selection);
+                WeatherChanges changes = new WeatherChanges();
+                boolean archiving = WeatherContract.WeatherEntry.isArchivingUri(uri);
+                long rowsArchived = 0;
+                beginTransaction(db);
+                try {
+                    // Find out which rows are going before they've gone
+                    if (null == selection) {
+                        changes.addWholeTable();
+                    } else {
+                        changes.addSelected(db, selection, selectionArgs);
+                    }
+                    if (archiving) {
+                        rowsArchived = mArchive.archive(db, null == selection ? "1" : selection,
+                                selectionArgs);
+                    }
+                    // this makes delete all rows return the number of rows deleted
+                    rowsDeleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                            null == selection ? "1" : selection, selectionArgs);
+                    if (archiving) {
+                        // Archiving happens once a sync, which is as good a time as any to
+                        // tidy up what's been archived for too long
+                        mArchive.applyRetention(db, System.currentTimeMillis());
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    endTransaction(db);
+                }
+                if (rowsDeleted != 0) {
+                    notifyWeatherChanges(db, changes);
+                }
+                if (rowsArchived != 0) {
+                    notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI);
+                }
+                break;
+            }
+            case ARCHIVE:
+                if (null == selection) {
+                    // Clearing out the archive means the weekly part of it too
+                    beginTransaction(db);
+                    try {
+                        rowsDeleted = db.delete(WeatherContract.ArchiveEntry.TABLE_NAME, "1", null);
+                        rowsDeleted += db.delete(WeatherContract.WeeklyEntry.TABLE_NAME, "1", null);
+                        db.setTransactionSuccessful();
+                    } finally {
+                        endTransaction(db);
+                    }
+                } else {
+                    rowsDeleted = db.delete(WeatherContract.ArchiveEntry.TABLE_NAME,
+                            decodeSelection(uri, sDecodedArchive, selection), selectionArgs);
+                }
+                if (rowsDeleted != 0) {
+                    notifyChange(uri);
+                }
                 break;
             case LOCATION:
+                // this makes delete all rows return the number of rows deleted
+                if ( null == selection ) selection = "1";
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                // Because a null deletes all rows
+                if (rowsDeleted != 0) {
+                    onLocationsChanged();
+                    notifyChange(uri);
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        // Because a null deletes all rows
-        if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
         return rowsDeleted;
     }
 
@@ -292,56 +827,456 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        long start = mMetrics.start();
+        int rowsUpdated = 0;
+        try {
+            rowsUpdated = update(match, uri, values, selection, selectionArgs);
+            return rowsUpdated;
+        } finally {
+            mMetrics.record(match, ProviderMetrics.OP_UPDATE, start, rowsUpdated);
+        }
+    }
+
+    private int update(int match, Uri uri, ContentValues values, String selection,
+                       String[] selectionArgs) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         int rowsUpdated;
 
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                WeatherChanges changes = new WeatherChanges();
+                if (WeatherContract.WeatherEntry.isUpsertUri(uri)) {
+                    // The row to write is the one the values' location and date pick out
+                    boolean written;
+                    beginTransaction(db);
+                    try {
+                        written = upsertWeatherRow(db,
+                                FixedPoint.encode(internCondition(db, values, changes)));
+                        db.setTransactionSuccessful();
+                    } finally {
+                        endTransaction(db);
+                    }
+                    // A new description for the row's condition changes what it reads back
+                    // as, even when the row itself is the same
+                    rowsUpdated = written || !changes.isEmpty() ? 1 : 0;
+                    changes.add(values);
+                } else {
+                    selection = decodeSelection(uri, sDecodedWeather, selection);
+                    beginTransaction(db);
+                    try {
+                        // Rows moved to another location or date turn up somewhere we can't
+                        // see from here
+                        if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY) ||
+                                values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                            changes.addWholeTable();
+                        } else {
+                            changes.addSelected(db, selection, selectionArgs);
+                        }
+                        rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME,
+                                FixedPoint.encode(internCondition(db, values, changes)),
+                                selection, selectionArgs);
+                        db.setTransactionSuccessful();
+                    } finally {
+                        endTransaction(db);
+                    }
+                }
+                if (rowsUpdated != 0) {
+                    notifyWeatherChanges(db, changes);
+                }
                 break;
+            }
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                if (rowsUpdated != 0) {
+                    onLocationsChanged();
+                    notifyChange(uri);
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
         return rowsUpdated;
     }
 
+    /**
+     * Runs the whole batch in one transaction, so a sync's location, forecast and clean-up land
+     * together or not at all, and each observer hears about it once at the end instead of after
+     * every operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        long start = mMetrics.start();
+        ContentProviderResult[] results = null;
+        try {
+            results = applyBatch(operations, mOpenHelper.getWritableDatabase());
+            return results;
+        } finally {
+            long rows = 0;
+            if (results != null) {
+                for (ContentProviderResult result : results) {
+                    rows += result.count != null ? result.count : (result.uri != null ? 1 : 0);
+                }
+            }
+            mMetrics.record(UriMatcher.NO_MATCH, ProviderMetrics.OP_APPLY_BATCH, start, rows);
+        }
+    }
+
+    private ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations,
+                                               SQLiteDatabase db)
+            throws OperationApplicationException {
+        Batch batch = new Batch();
+        mBatch.set(batch);
+        ContentProviderResult[] results;
+        beginTransaction(db);
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            if (batch.weatherWriter != null) {
+                batch.weatherWriter.close();
+            }
+            if (batch.conditions != null) {
+                batch.conditions.close();
+            }
+            mBatch.remove();
+            endTransaction(db);
+        }
+
+        // Only now are the location changes for real
+        if (batch.locationsChanged) {
+            LocationIdCache.invalidate();
+        } else {
+            for (Map.Entry<String, Long> location : batch.insertedLocations.entrySet()) {
+                LocationIdCache.onLocationInserted(location.getKey(), location.getValue());
+            }
+        }
+
+        if (!batch.notifications.isEmpty()) {
+            notifyCoalesced(batch.notifications);
+            mOpenHelper.checkpoint(db);
+            if (mQueryCache != null) {
+                Log.d(LOG_TAG, "Query cache " + mQueryCache.getStats());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Tells observers about a change, or saves it for the end of the batch if there is one
+     * running on this thread.
+     */
+    private void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.notifications.add(uri);
+        } else {
+            sendNotification(uri);
+        }
+    }
+
+    /**
+     * Drops the cached results the change affects and tells observers.  Only call this once the
+     * change is committed, or a query racing the write could cache what it's about to replace.
+     */
+    private void sendNotification(Uri uri) {
+        if (mQueryCache != null) {
+            // Every cached weather result is joined with the location table and keyed by
+            // location setting, the very thing a location write can change.  Those are rare,
+            // so rather than work out which results they affect, they drop them all.
+            List<String> segments = uri.getPathSegments();
+            if (!segments.isEmpty() && WeatherContract.PATH_LOCATION.equals(segments.get(0))) {
+                mQueryCache.clear();
+            } else {
+                mQueryCache.invalidate(uri);
+            }
+        }
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    /**
+     * Tells observers about the weather rows that changed, by location and date.
+     */
+    private void notifyWeatherChanges(SQLiteDatabase db, WeatherChanges changes) {
+        if (changes.isEmpty()) return;
+        for (Uri uri : changes.getNotificationUris(db)) {
+            notifyChange(uri);
+        }
+    }
+
+    /**
+     * Keeps LocationIdCache up to date with a new location, once it's been committed.
+     */
+    private void onLocationInserted(ContentValues values, long id) {
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.insertedLocations.put(locationSetting, id);
+        } else {
+            LocationIdCache.onLocationInserted(locationSetting, id);
+        }
+    }
+
+    private void onLocationsChanged() {
+        // Right away, so nobody goes on using an ID that's on its way out, and again once a
+        // batch is committed in case the cache was filled in the meantime
+        LocationIdCache.invalidate();
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.locationsChanged = true;
+        }
+    }
+
+    /**
+     * Sends the notifications a batch saved up.  A Uri under another one in the set is left out,
+     * since notifying the other already reaches its observers.
+     */
+    private void notifyCoalesced(Set<Uri> uris) {
+        for (Uri uri : uris) {
+            boolean covered = false;
+            for (Uri other : uris) {
+                if (other != uri && isUnder(uri, other)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                sendNotification(uri);
+            }
+        }
+    }
+
+    // True if uri is below parent in the path, e.g. weather/94043/1419033600000 below weather
+    private static boolean isUnder(Uri uri, Uri parent) {
+        List<String> segments = uri.getPathSegments();
+        List<String> parentSegments = parent.getPathSegments();
+        return segments.size() > parentSegments.size() &&
+                segments.subList(0, parentSegments.size()).equals(parentSegments);
+    }
+
+    /**
+     * Moves the values' short description into the condition dictionary, reusing the batch's
+     * dictionary when there is a batch.  Must be called inside a transaction.
+     *
+     * @return the values to write to the weather table
+     */
+    private ContentValues internCondition(SQLiteDatabase db, ContentValues values,
+                                          WeatherChanges changes) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            if (batch.conditions == null) {
+                batch.conditions = new ConditionDictionary(db);
+            }
+            return batch.conditions.intern(values, changes);
+        }
+        ConditionDictionary conditions = new ConditionDictionary(db);
+        try {
+            return conditions.intern(values, changes);
+        } finally {
+            conditions.close();
+        }
+    }
+
+    /**
+     * Upserts one weather row, reusing the batch's compiled statements when there is a batch.
+     */
+    private boolean upsertWeatherRow(SQLiteDatabase db, ContentValues values) {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            return upsertWeather(db, values);
+        }
+        if (batch.weatherWriter == null) {
+            batch.weatherWriter = CompiledTableWriter.forWeather(db);
+        }
+        return batch.weatherWriter.canWrite(values)
+                ? batch.weatherWriter.upsert(values)
+                : upsertWeather(db, values);
+    }
+
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        long start = mMetrics.start();
+        int returnCount = 0;
+        try {
+            returnCount = bulkInsert(match, uri, values);
+            return returnCount;
+        } finally {
+            mMetrics.record(match, ProviderMetrics.OP_BULK_INSERT, start, returnCount);
+        }
+    }
+
+    private int bulkInsert(int match, Uri uri, ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         switch (match) {
-            case WEATHER:
-                db.beginTransaction();
+            case WEATHER: {
+                boolean upsert = WeatherContract.WeatherEntry.isUpsertUri(uri);
+                WeatherChanges changes = new WeatherChanges();
+                beginTransaction(db);
                 int returnCount = 0;
+                // Full rows, which is what the sync adapter sends, go through statements
+                // compiled once for the whole batch
+                CompiledTableWriter writer = CompiledTableWriter.forWeather(db);
+                ConditionDictionary conditions = new ConditionDictionary(db);
                 try {
                     for (ContentValues value : values) {
                         normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
+                        ContentValues row = FixedPoint.encode(conditions.intern(value, changes));
+                        boolean written;
+                        if (writer.canWrite(row)) {
+                            written = upsert ? writer.upsert(row) : writer.insert(row) != -1;
+                        } else if (upsert) {
+                            written = upsertWeather(db, row);
+                        } else {
+                            written = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, row) != -1;
+                        }
+                        if (written) {
                             returnCount++;
+                            changes.add(value);
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
-                    db.endTransaction();
+                    writer.close();
+                    conditions.close();
+                    endTransaction(db);
+                }
+                // An upsert that changed nothing has nothing to tell anyone.  Rows whose
+                // condition got a new description count as changed, written or not.
+                if (!changes.isEmpty()) {
+                    notifyWeatherChanges(db, changes);
+                    // A sync's worth of rows is the biggest write we see, and there's usually
+                    // a quiet spell after it
+                    mOpenHelper.checkpoint(db);
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
                 return returnCount;
+            }
+            case LOCATION: {
+                beginTransaction(db);
+                int returnCount = 0;
+                long[] ids = new long[values.length];
+                CompiledTableWriter writer = CompiledTableWriter.forLocation(db);
+                try {
+                    for (int i = 0; i < values.length; i++) {
+                        ids[i] = writer.canWrite(values[i])
+                                ? writer.insert(values[i])
+                                : db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values[i]);
+                        if (ids[i] != -1) {
+                            returnCount++;
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    writer.close();
+                    endTransaction(db);
+                }
+                if (returnCount > 0) {
+                    for (int i = 0; i < values.length; i++) {
+                        if (ids[i] != -1) onLocationInserted(values[i], ids[i]);
+                    }
+                    notifyChange(uri);
+                }
+                return returnCount;
+            }
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Writes a weather row unless one with exactly the same values is already stored for its
+     * location and date.  A changed row is updated in place, so unlike the table's
+     * ON CONFLICT REPLACE it keeps its _ID, and an unchanged row isn't touched at all.
+     * Must be called inside a transaction.
+     *
+     * @return true if a row was inserted or changed
+     */
+    private boolean upsertWeather(SQLiteDatabase db, ContentValues values) {
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (locationId == null || date == null) {
+            // Without the unique key there's nothing to compare with, let the insert fail
+            return db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values) != -1;
+        }
+
+        // UPDATE weather SET min = ?, max = ? ...
+        //     WHERE location_id = ? AND date = ? AND (min IS NOT ? OR max IS NOT ? ...)
+        // IS NOT treats NULLs as values, so this only matches the row if something differs.
+        ArrayList<String> columns = new ArrayList<String>(values.size());
+        for (String column : values.keySet()) {
+            if (column.equals(WeatherContract.WeatherEntry.COLUMN_LOC_KEY) ||
+                    column.equals(WeatherContract.WeatherEntry.COLUMN_DATE)) continue;
+            columns.add(column);
+        }
+        if (!columns.isEmpty()) {
+            StringBuilder sql = new StringBuilder("UPDATE ")
+                    .append(WeatherContract.WeatherEntry.TABLE_NAME).append(" SET ");
+            for (int i = 0; i < columns.size(); i++) {
+                sql.append(i > 0 ? ", " : "").append(columns.get(i)).append(" = ?");
+            }
+            sql.append(" WHERE ").append(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                    .append(" = ? AND ").append(WeatherContract.WeatherEntry.COLUMN_DATE)
+                    .append(" = ? AND (");
+            for (int i = 0; i < columns.size(); i++) {
+                sql.append(i > 0 ? " OR " : "").append(columns.get(i)).append(" IS NOT ?");
+            }
+            sql.append(')');
+
+            // Bind the values with their own types, so doubles are compared as doubles and not
+            // as whatever their strings turn back into.
+            SQLiteStatement update = db.compileStatement(sql.toString());
+            try {
+                int index = 1;
+                for (String column : columns) {
+                    DatabaseUtils.bindObjectToProgram(update, index++, values.get(column));
+                }
+                update.bindLong(index++, locationId);
+                update.bindLong(index++, date);
+                for (String column : columns) {
+                    DatabaseUtils.bindObjectToProgram(update, index++, values.get(column));
+                }
+                update.execute();
+            } finally {
+                update.close();
+            }
+            if (getChangedRowCount(db) > 0) {
+                return true;
+            }
+        }
+
+        // Either the row is the same as the one we have, or we don't have one yet.  Inserting
+        // with IGNORE sorts out which, without the table's REPLACE kicking in.
+        db.insertWithOnConflict(WeatherContract.WeatherEntry.TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE);
+        // insertWithOnConflict's return value on an ignored row differs between releases
+        return getChangedRowCount(db) > 0;
+    }
+
+    // Every transaction goes through these two, so ProviderMetrics can time them
+    private void beginTransaction(SQLiteDatabase db) {
+        db.beginTransaction();
+        mMetrics.onBeginTransaction();
+    }
+
+    private void endTransaction(SQLiteDatabase db) {
+        try {
+            db.endTransaction();
+        } finally {
+            mMetrics.onEndTransaction();
+        }
+    }
+
+    /**
+     * @return how many rows the last INSERT, UPDATE or DELETE on this connection wrote
+     */
+    private static long getChangedRowCount(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT changes()", null);
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
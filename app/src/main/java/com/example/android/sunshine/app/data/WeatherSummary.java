@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The few values the widgets, Muzei, the wearable and the notification show for a day.  They
+ * come straight from WeatherProvider.call as a small Bundle, so there's no cursor or
+ * CursorWindow to set up, fill and read back column by column.
+ */
+public class WeatherSummary {
+
+    // The Bundle WeatherProvider.call returns holds one array for each of these
+    static final String KEY_DATE = WeatherEntry.COLUMN_DATE;
+    static final String KEY_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+    static final String KEY_SHORT_DESC = WeatherEntry.COLUMN_SHORT_DESC;
+    static final String KEY_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+    static final String KEY_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+
+    // The columns a summary is read from
+    static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+
+    public final long date;
+    public final int weatherId;
+    public final String description;
+    public final double high;
+    public final double low;
+
+    private WeatherSummary(long date, int weatherId, String description, double high, double low) {
+        this.date = date;
+        this.weatherId = weatherId;
+        this.description = description;
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * @return the first day of weather stored for the location on or after the start date, or
+     * null if there isn't one
+     */
+    public static WeatherSummary getDay(Context context, String locationSetting, long startDate) {
+        List<WeatherSummary> days = getForecast(context, locationSetting, startDate, 1);
+        return days.isEmpty() ? null : days.get(0);
+    }
+
+    /**
+     * @return up to dayCount days of weather stored for the location, in date order from the
+     * start date
+     */
+    public static List<WeatherSummary> getForecast(Context context, String locationSetting,
+                                                   long startDate, int dayCount) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return fromBundle(callProvider(context, locationSetting, startDate, dayCount));
+        }
+        // ContentResolver.call came in with Honeycomb, before that it's the usual query
+        Cursor cursor = context.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, startDate),
+                COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        try {
+            return fromBundle(toBundle(cursor, dayCount));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Bundle callProvider(Context context, String locationSetting, long startDate,
+                                       int dayCount) {
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_START_DATE, startDate);
+        extras.putInt(WeatherContract.EXTRA_DAY_COUNT, dayCount);
+        return context.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_GET_SUMMARY, locationSetting, extras);
+    }
+
+    /**
+     * Packs up to dayCount rows of a cursor over COLUMNS into a Bundle of arrays.
+     */
+    static Bundle toBundle(Cursor cursor, int dayCount) {
+        int count = Math.max(Math.min(cursor.getCount(), dayCount), 0);
+        long[] dates = new long[count];
+        int[] weatherIds = new int[count];
+        String[] descriptions = new String[count];
+        double[] highs = new double[count];
+        double[] lows = new double[count];
+        for (int i = 0; i < count && cursor.moveToPosition(i); i++) {
+            dates[i] = cursor.getLong(INDEX_DATE);
+            weatherIds[i] = cursor.getInt(INDEX_WEATHER_ID);
+            descriptions[i] = cursor.getString(INDEX_SHORT_DESC);
+            highs[i] = cursor.getDouble(INDEX_MAX_TEMP);
+            lows[i] = cursor.getDouble(INDEX_MIN_TEMP);
+        }
+
+        Bundle bundle = new Bundle();
+        bundle.putLongArray(KEY_DATE, dates);
+        bundle.putIntArray(KEY_WEATHER_ID, weatherIds);
+        bundle.putStringArray(KEY_SHORT_DESC, descriptions);
+        bundle.putDoubleArray(KEY_MAX_TEMP, highs);
+        bundle.putDoubleArray(KEY_MIN_TEMP, lows);
+        return bundle;
+    }
+
+    private static List<WeatherSummary> fromBundle(Bundle bundle) {
+        long[] dates = bundle != null ? bundle.getLongArray(KEY_DATE) : null;
+        if (dates == null) {
+            return Collections.emptyList();
+        }
+        int[] weatherIds = bundle.getIntArray(KEY_WEATHER_ID);
+        String[] descriptions = bundle.getStringArray(KEY_SHORT_DESC);
+        double[] highs = bundle.getDoubleArray(KEY_MAX_TEMP);
+        double[] lows = bundle.getDoubleArray(KEY_MIN_TEMP);
+
+        List<WeatherSummary> days = new ArrayList<WeatherSummary>(dates.length);
+        for (int i = 0; i < dates.length; i++) {
+            days.add(new WeatherSummary(dates[i], weatherIds[i], descriptions[i], highs[i], lows[i]));
+        }
+        return days;
+    }
+}
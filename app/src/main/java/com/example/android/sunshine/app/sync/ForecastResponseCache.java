@@ -0,0 +1,401 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A small on-disk cache of forecast responses.  It lets a sync skip the network when it already
+ * has a recent answer to the same request, and gives it something to store when the network is
+ * down.
+ *
+ * Entries are keyed by the request Uri without the API key.  Each one holds the response body
+ * together with the local day it was fetched on and the validators the server sent with it; the
+ * file's modification time is when it was last fetched or revalidated.  The cache is bounded by
+ * total size and by age, and evicts the least recently fetched entries first.
+ */
+class ForecastResponseCache {
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String DIRECTORY_NAME = "forecast_responses";
+    private static final String ENTRY_SUFFIX = ".entry";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // Bump this if the entry header changes; entries with another version are ignored
+    private static final int ENTRY_VERSION = 1;
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // A 14 day forecast is around 5KB, so this is room for a couple of hundred locations
+    private static final long MAX_SIZE_BYTES = 1024 * 1024;
+    // Forecasts older than this are too far out of date to fall back on
+    private static final long MAX_AGE_MILLIS = 3 * DAY_IN_MILLIS;
+
+    private static final Object sLock = new Object();
+    private static ForecastResponseCache sInstance;
+
+    // How the cache has done for the life of the process, so we can tune the limits above
+    private static long sHitCount;
+    private static long sMissCount;
+    private static long sFallbackCount;
+    private static long sBytesServed;
+
+    private final File mDirectory;
+    private final long mMaxSizeBytes;
+    private final long mMaxAgeMillis;
+
+    /**
+     * A cached response, positioned at the start of its body.  Close it once the body is read.
+     */
+    static class Entry implements Closeable {
+        final long fetchedAt;
+        final int julianDay;
+        final String etag;
+        final String lastModified;
+        final InputStream body;
+
+        private Entry(long fetchedAt, int julianDay, String etag, String lastModified,
+                      InputStream body) {
+            this.fetchedAt = fetchedAt;
+            this.julianDay = julianDay;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            body.close();
+        }
+    }
+
+    /**
+     * Writes a response into the cache as it is read.  Nothing is visible to readers until
+     * {@link #commit()}; a response that fails half way through should be {@link #abort()}ed.
+     */
+    class Editor {
+        private final File mEntryFile;
+        private final File mTempFile;
+        private final DataOutputStream mOut;
+        private boolean mDone;
+        // Set if writing to the cache fails, which mustn't fail the read it's copying
+        private boolean mFailed;
+
+        private Editor(File entryFile, File tempFile, DataOutputStream out) {
+            mEntryFile = entryFile;
+            mTempFile = tempFile;
+            mOut = out;
+        }
+
+        /**
+         * Wraps the response stream so that everything read from it is also written to this
+         * entry.
+         */
+        InputStream tee(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        copy(new byte[]{(byte) b}, 0, 1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    int read = super.read(buffer, offset, count);
+                    if (read > 0) {
+                        copy(buffer, offset, read);
+                    }
+                    return read;
+                }
+
+                @Override
+                public long skip(long byteCount) throws IOException {
+                    // Skipped bytes would leave a hole in the entry, so read them instead
+                    byte[] buffer = new byte[(int) Math.min(byteCount, 4096)];
+                    int read = read(buffer, 0, buffer.length);
+                    return read == -1 ? 0 : read;
+                }
+
+                @Override
+                public boolean markSupported() {
+                    return false;
+                }
+            };
+        }
+
+        private void copy(byte[] buffer, int offset, int count) {
+            if (mFailed) return;
+            try {
+                mOut.write(buffer, offset, count);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Unable to cache response", e);
+                mFailed = true;
+            }
+        }
+
+        /**
+         * Makes the entry visible, unless writing it failed, in which case it's thrown away.
+         */
+        void commit() throws IOException {
+            if (mFailed) {
+                abort();
+            }
+            if (mDone) return;
+            mDone = true;
+            mOut.close();
+            synchronized (ForecastResponseCache.this) {
+                if (!mTempFile.renameTo(mEntryFile)) {
+                    mTempFile.delete();
+                    throw new IOException("Unable to commit " + mEntryFile);
+                }
+                trimToSize();
+            }
+        }
+
+        void abort() {
+            if (mDone) return;
+            mDone = true;
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                // We're throwing it away anyhow
+            }
+            mTempFile.delete();
+        }
+    }
+
+    static ForecastResponseCache getInstance(Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new ForecastResponseCache(
+                        new File(context.getApplicationContext().getCacheDir(), DIRECTORY_NAME),
+                        MAX_SIZE_BYTES, MAX_AGE_MILLIS);
+            }
+            return sInstance;
+        }
+    }
+
+    ForecastResponseCache(File directory, long maxSizeBytes, long maxAgeMillis) {
+        mDirectory = directory;
+        mMaxSizeBytes = maxSizeBytes;
+        mMaxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Looks up a response fetched for today within the last freshMillis, which can be used in
+     * place of a network request.  Counts as a hit or a miss.
+     *
+     * @return the entry, or null if there isn't a fresh one
+     */
+    Entry getFresh(String key, int julianToday, long freshMillis) {
+        Entry entry = get(key);
+        if (entry != null && (entry.julianDay != julianToday
+                || System.currentTimeMillis() - entry.fetchedAt > freshMillis)) {
+            closeQuietly(entry);
+            entry = null;
+        }
+        synchronized (sLock) {
+            if (entry != null) {
+                sHitCount++;
+            } else {
+                sMissCount++;
+            }
+        }
+        return countBytes(entry);
+    }
+
+    /**
+     * Looks up whatever response there is for the key, however old, to stand in for a request
+     * that failed.
+     *
+     * @return the entry, or null if there's nothing cached
+     */
+    Entry getFallback(String key) {
+        Entry entry = get(key);
+        if (entry != null) {
+            synchronized (sLock) {
+                sFallbackCount++;
+            }
+        }
+        return countBytes(entry);
+    }
+
+    /**
+     * Starts writing a new response for the key.  The previous entry stays readable until the new
+     * one is committed.
+     */
+    Editor edit(String key, int julianDay, String etag, String lastModified) throws IOException {
+        String fileName = getFileName(key);
+        File tempFile;
+        synchronized (this) {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                throw new IOException("Unable to create " + mDirectory);
+            }
+            // Several syncs of the same location could be writing at once, give each its own file
+            tempFile = File.createTempFile(fileName, TEMP_SUFFIX, mDirectory);
+        }
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(ENTRY_VERSION);
+            out.writeUTF(key);
+            out.writeInt(julianDay);
+            writeNullableString(out, etag);
+            writeNullableString(out, lastModified);
+        } catch (IOException e) {
+            out.close();
+            tempFile.delete();
+            throw e;
+        }
+        return new Editor(new File(mDirectory, fileName + ENTRY_SUFFIX), tempFile, out);
+    }
+
+    /**
+     * Marks the entry as fetched just now, after the server told us it hasn't changed.
+     */
+    synchronized void touch(String key) {
+        File entryFile = new File(mDirectory, getFileName(key) + ENTRY_SUFFIX);
+        if (entryFile.exists()) {
+            entryFile.setLastModified(System.currentTimeMillis());
+        }
+    }
+
+    static String getStats() {
+        synchronized (sLock) {
+            return "hits=" + sHitCount + " misses=" + sMissCount +
+                    " fallbacks=" + sFallbackCount + " bytesServed=" + sBytesServed;
+        }
+    }
+
+    private synchronized Entry get(String key) {
+        File entryFile = new File(mDirectory, getFileName(key) + ENTRY_SUFFIX);
+        long fetchedAt = entryFile.lastModified();
+        if (fetchedAt == 0 || System.currentTimeMillis() - fetchedAt > mMaxAgeMillis) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(entryFile)));
+            if (in.readInt() != ENTRY_VERSION || !key.equals(in.readUTF())) {
+                // Written by another version, or another key that happens to share the file name
+                in.close();
+                return null;
+            }
+            int julianDay = in.readInt();
+            String etag = readNullableString(in);
+            String lastModified = readNullableString(in);
+            return new Entry(fetchedAt, julianDay, etag, lastModified, in);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to read cached response " + entryFile, e);
+            if (in != null) {
+                closeQuietly(in);
+            }
+            entryFile.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Drops expired entries, then the least recently fetched ones until the cache fits in its
+     * size limit.  Must be called with the cache locked.
+     */
+    private void trimToSize() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) return;
+
+        long now = System.currentTimeMillis();
+        long size = 0;
+        int count = 0;
+        for (File file : files) {
+            boolean isEntry = file.getName().endsWith(ENTRY_SUFFIX);
+            long age = now - file.lastModified();
+            // Temp files are only left behind by a process that died mid-write
+            if (age > mMaxAgeMillis || (!isEntry && age > DAY_IN_MILLIS)) {
+                file.delete();
+            } else if (isEntry) {
+                files[count++] = file;
+                size += file.length();
+            }
+        }
+        if (size <= mMaxSizeBytes) return;
+
+        File[] entries = Arrays.copyOf(files, count);
+        Arrays.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < entries.length && size > mMaxSizeBytes; i++) {
+            size -= entries[i].length();
+            entries[i].delete();
+        }
+    }
+
+    private static Entry countBytes(Entry entry) {
+        if (entry == null) return null;
+        InputStream counted = new FilterInputStream(entry.body) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) addBytesServed(1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                int read = super.read(buffer, offset, count);
+                if (read > 0) addBytesServed(read);
+                return read;
+            }
+        };
+        return new Entry(entry.fetchedAt, entry.julianDay, entry.etag, entry.lastModified, counted);
+    }
+
+    private static void addBytesServed(long bytes) {
+        synchronized (sLock) {
+            sBytesServed += bytes;
+        }
+    }
+
+    private static String getFileName(String key) {
+        // Collisions are caught by the key stored in the entry header
+        return Integer.toHexString(key.hashCode());
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing more to do with it
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * What the last forecast stored for a location looked like on the wire: the HTTP validators the
+ * server sent with it (ETag and Last-Modified), a hash of the response body for servers that
+ * send neither, and the local day it was stored on.
+ *
+ * The sync adapter uses these to make conditional requests, and to recognise a response it has
+ * already stored so it can leave the database, and everything watching it, alone.
+ */
+class ForecastValidators {
+    // Kept out of the default shared preferences, so writing them doesn't wake up every
+    // OnSharedPreferenceChangeListener in the app.
+    private static final String PREFS_NAME = "forecast_validators";
+
+    private static final String KEY_ETAG = "etag:";
+    private static final String KEY_LAST_MODIFIED = "last_modified:";
+    private static final String KEY_CONTENT_HASH = "content_hash:";
+    private static final String KEY_JULIAN_DAY = "julian_day:";
+
+    final String locationSetting;
+    final String etag;
+    final String lastModified;
+    final String contentHash;
+    final int julianDay;
+
+    ForecastValidators(String locationSetting, String etag, String lastModified,
+                       String contentHash, int julianDay) {
+        this.locationSetting = locationSetting;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.contentHash = contentHash;
+        this.julianDay = julianDay;
+    }
+
+    /**
+     * @return the validators stored for the location, with nulls and a julian day of 0 if
+     * nothing has been stored for it yet.
+     */
+    static ForecastValidators load(Context context, String locationSetting) {
+        SharedPreferences prefs = getPreferences(context);
+        return new ForecastValidators(locationSetting,
+                prefs.getString(KEY_ETAG + locationSetting, null),
+                prefs.getString(KEY_LAST_MODIFIED + locationSetting, null),
+                prefs.getString(KEY_CONTENT_HASH + locationSetting, null),
+                prefs.getInt(KEY_JULIAN_DAY + locationSetting, 0));
+    }
+
+    /**
+     * Stores these validators.  This function should not be called from the UI thread because it
+     * uses commit to write to the shared preferences.
+     */
+    void save(Context context) {
+        getPreferences(context).edit()
+                .putString(KEY_ETAG + locationSetting, etag)
+                .putString(KEY_LAST_MODIFIED + locationSetting, lastModified)
+                .putString(KEY_CONTENT_HASH + locationSetting, contentHash)
+                .putInt(KEY_JULIAN_DAY + locationSetting, julianDay)
+                .commit();
+    }
+
+    /**
+     * Days are numbered from the local date the response was received on, so a response is
+     * only the same forecast as the stored one if it arrived on the same local day.
+     */
+    boolean isFromDay(int julianDay) {
+        return this.julianDay == julianDay;
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -7,26 +7,30 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
@@ -34,23 +38,36 @@ import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.JulianDay;
+import com.example.android.sunshine.app.data.LocationIdCache;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherSummary;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Vector;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -63,19 +80,22 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
+    // Conditional requests, so unchanged forecasts cost a 304 rather than a download and a write
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    // We ask for gzip ourselves rather than leave it to HttpURLConnection, so that we can see
+    // how much it saves.  Once the header is set, decoding the response is up to us.
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final int DECODE_BUFFER_SIZE = 8192;
+    // Only used to tell whether a response body is the same as the last one
+    private static final String CONTENT_DIGEST_ALGORITHM = "MD5";
+    // Periodic syncs are hours apart, so this only saves the requests made in quick succession,
+    // like flipping back to a location or units setting we were just using.
+    private static final long RESPONSE_FRESH_MILLIS = 1000 * 60 * 15;
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -87,6 +107,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    // Forecast bytes received and decoded for the life of the process
+    private static long sWireBytes;
+    private static long sDecodedBytes;
+
+    // How many locations are fetched at once
+    private static final int MAX_CONCURRENT_FETCHES = 4;
+    private static final long FETCH_THREAD_KEEP_ALIVE_SECONDS = 30;
+    private static ExecutorService sFetchExecutor;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
     }
@@ -94,15 +123,75 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
+        String preferredLocation = Utility.getPreferredLocation(getContext());
+        List<String> locations = Utility.getSyncedLocations(getContext());
+
+        // Each location is fetched and parsed on its own, so a slow or failing one doesn't hold
+        // up the rest.  The network is what takes the time, so this runs them side by side.
+        List<Callable<FetchResult>> fetches = new ArrayList<Callable<FetchResult>>(locations.size());
+        for (final String locationQuery : locations) {
+            fetches.add(new Callable<FetchResult>() {
+                @Override
+                public FetchResult call() {
+                    return fetchForecast(locationQuery);
+                }
+            });
+        }
+
+        List<FetchResult> results = new ArrayList<FetchResult>(locations.size());
+        try {
+            for (Future<FetchResult> future : getFetchExecutor().invokeAll(fetches)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            // The sync was cancelled; whatever was fetched is still worth keeping
+            Log.w(LOG_TAG, "Sync interrupted", e);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // fetchForecast handles its own failures, so this is a bug
+            throw new RuntimeException(e.getCause());
+        } finally {
+            Log.d(LOG_TAG, "Response cache " + ForecastResponseCache.getStats());
+        }
+
+        storeForecasts(results, preferredLocation);
+    }
 
-        // These two need to be declared outside the try/catch
+    /**
+     * What the fetch for one location came back with.
+     */
+    private static class FetchResult {
+        final String locationSetting;
+        @LocationStatus int status = LOCATION_STATUS_OK;
+
+        // The parsed response, or null if there's nothing new to store
+        ForecastJsonParser.Forecast forecast;
+        int julianStartDay;
+        String contentHash;
+        String etag;
+        String lastModified;
+
+        FetchResult(String locationSetting) {
+            this.locationSetting = locationSetting;
+        }
+    }
+
+    /**
+     * Fetches and parses the forecast for one location.  This runs on the fetch executor, so it
+     * leaves the database alone apart from reads; storing the result is up to
+     * {@link #storeForecasts}.
+     */
+    private FetchResult fetchForecast(String locationQuery) {
+        FetchResult result = new FetchResult(locationQuery);
+        ForecastResponseCache responseCache = ForecastResponseCache.getInstance(getContext());
+
+        // These need to be declared outside the try/catch
         // so that they can be closed in the finally block.
         HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        Reader reader = null;
+        ForecastResponseCache.Entry cachedResponse = null;
+        ForecastResponseCache.Editor cacheEditor = null;
+        String cacheKey = null;
 
         String format = "json";
         String units = "metric";
@@ -120,54 +209,136 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             final String DAYS_PARAM = "cnt";
             final String APPID_PARAM = "APPID";
 
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+            // The response cache is keyed on the query without the API key, so a new key
+            // doesn't throw away everything we've cached.
+            Uri queryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
                     .appendQueryParameter(QUERY_PARAM, locationQuery)
                     .appendQueryParameter(FORMAT_PARAM, format)
                     .appendQueryParameter(UNITS_PARAM, units)
                     .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                    .build();
+            cacheKey = queryUri.toString();
+            Uri builtUri = queryUri.buildUpon()
                     .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
                     .build();
 
             URL url = new URL(builtUri.toString());
 
+            // OWM numbers the days from the local date, and so do we.  What we stored earlier
+            // today can be revalidated; anything older has to be fetched and stored again.
+            int julianStartDay = JulianDay.today();
+            ForecastValidators validators =
+                    ForecastValidators.load(getContext(), locationQuery);
+            boolean canRevalidate = validators.isFromDay(julianStartDay)
+                    && hasForecastFor(locationQuery);
+
+            // If we fetched this forecast a few minutes ago there's no need to ask again.
+            cachedResponse = responseCache.getFresh(cacheKey, julianStartDay, RESPONSE_FRESH_MILLIS);
+            if (cachedResponse != null) {
+                Log.d(LOG_TAG, "Using " + locationQuery + " forecast cached at " +
+                        cachedResponse.fetchedAt);
+                MessageDigest digest = newContentDigest();
+                reader = newResponseReader(cachedResponse.body, digest);
+                setForecastIfChanged(result, ForecastJsonParser.parse(reader), julianStartDay,
+                        toHex(digest.digest()), canRevalidate ? validators : null,
+                        cachedResponse.etag, cachedResponse.lastModified);
+                return result;
+            }
+
             // Create the request to OpenWeatherMap, and open the connection
             urlConnection = (HttpURLConnection) url.openConnection();
             urlConnection.setRequestMethod("GET");
+            urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+            if (canRevalidate && validators.etag != null) {
+                urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, validators.etag);
+            }
+            if (canRevalidate && validators.lastModified != null) {
+                urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, validators.lastModified);
+            }
+            long requestStart = SystemClock.elapsedRealtime();
             urlConnection.connect();
 
-            // Read the input stream into a String
+            if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // What we have is still current, so there's nothing to write and nobody to tell.
+                responseCache.touch(cacheKey);
+                Log.d(LOG_TAG, "Forecast for " + locationQuery + " not modified");
+                return result;
+            }
+
             InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
             if (inputStream == null) {
                 // Nothing to do.
-                return;
+                return result;
+            }
+
+            // Decompress as the parser pulls, so the whole response is never held in memory,
+            // compressed or not.  The counters either side of the decoder tell us what the
+            // compression bought.
+            CountingInputStream wireStream = new CountingInputStream(inputStream);
+            CountingInputStream decodedStream;
+            if (ENCODING_GZIP.equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                decodedStream = new CountingInputStream(
+                        new GZIPInputStream(wireStream, DECODE_BUFFER_SIZE));
+            } else {
+                decodedStream = new CountingInputStream(
+                        new BufferedInputStream(wireStream, DECODE_BUFFER_SIZE));
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            inputStream = decodedStream;
+
+            // Copy the response into the cache as it's read, so it never has to be held in
+            // memory.  It only becomes visible once the whole body has arrived and parsed.
+            String etag = urlConnection.getHeaderField(HEADER_ETAG);
+            String lastModified = urlConnection.getHeaderField(HEADER_LAST_MODIFIED);
+            cacheEditor = editCachedResponse(responseCache, cacheKey, julianStartDay,
+                    etag, lastModified);
+            if (cacheEditor != null) {
+                inputStream = cacheEditor.tee(inputStream);
             }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+            // Parse the forecast straight off the stream, hashing it on the way through so we
+            // can spot a repeat of what we already have even when the server sends no
+            // validators.  An empty stream shows up here as an IOException, which is handled
+            // just like any other failed download.
+            MessageDigest digest = newContentDigest();
+            reader = newResponseReader(inputStream, digest);
+            ForecastJsonParser.Forecast forecast = ForecastJsonParser.parse(reader);
+            String contentHash = toHex(digest.digest());
+            recordTransfer(wireStream.getCount(), decodedStream.getCount(),
+                    SystemClock.elapsedRealtime() - requestStart);
+
+            if (cacheEditor != null) {
+                // Errors such as an unknown city are worth asking about again next time
+                if (forecast.messageCode == HttpURLConnection.HTTP_OK) {
+                    try {
+                        cacheEditor.commit();
+                    } catch (IOException e) {
+                        Log.w(LOG_TAG, "Unable to cache forecast", e);
+                    }
+                } else {
+                    cacheEditor.abort();
+                }
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+
+            setForecastIfChanged(result, forecast, julianStartDay, contentHash,
+                    canRevalidate ? validators : null, etag, lastModified);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            // to parse it.  Whatever we last downloaded is better than nothing, though.
+            if (cacheEditor != null) {
+                cacheEditor.abort();
+            }
+            if (cacheKey != null && cachedResponse == null) {
+                setCachedForecast(result, responseCache, cacheKey);
+            }
+            result.status = LOCATION_STATUS_SERVER_DOWN;
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            if (cacheEditor != null) {
+                cacheEditor.abort();
+            }
+            result.status = LOCATION_STATUS_SERVER_INVALID;
         } finally {
             if (urlConnection != null) {
                 urlConnection.disconnect();
@@ -179,185 +350,313 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     Log.e(LOG_TAG, "Error closing stream", e);
                 }
             }
+            if (cachedResponse != null) {
+                try {
+                    cachedResponse.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing cached response", e);
+                }
+            }
         }
-        return;
+        return result;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Hands a parsed forecast on to be stored, unless it is the very response we stored last
+     * time, or reports an error.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @param validators what we stored last time, or null if it can't be trusted to still be
+     *                   in the database
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+    private static void setForecastIfChanged(FetchResult result,
+                                             ForecastJsonParser.Forecast forecast,
+                                             int julianStartDay, String contentHash,
+                                             ForecastValidators validators,
+                                             String etag, String lastModified) {
+        // do we have an error?
+        switch (forecast.messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                break;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                result.status = LOCATION_STATUS_INVALID;
+                return;
+            default:
+                result.status = LOCATION_STATUS_SERVER_DOWN;
+                return;
+        }
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+        if (forecast.cityName == null) {
+            // A forecast without its city can't be tied to a location
+            result.status = LOCATION_STATUS_SERVER_INVALID;
+            return;
+        }
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+        if (validators != null && contentHash.equals(validators.contentHash)) {
+            Log.d(SunshineSyncAdapter.class.getSimpleName(),
+                    "Forecast for " + result.locationSetting + " unchanged");
+            return;
+        }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+        result.forecast = forecast;
+        result.julianStartDay = julianStartDay;
+        result.contentHash = contentHash;
+        result.etag = etag;
+        result.lastModified = lastModified;
+    }
 
-        final String OWM_MESSAGE_CODE = "cod";
+    /**
+     * Falls back to the last forecast we downloaded for the location, however old, when a fresh
+     * one can't be had.
+     */
+    private void setCachedForecast(FetchResult result, ForecastResponseCache responseCache,
+                                   String cacheKey) {
+        ForecastResponseCache.Entry cachedResponse = responseCache.getFallback(cacheKey);
+        if (cachedResponse == null) {
+            return;
+        }
 
+        Reader reader = null;
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            Log.d(LOG_TAG, "Falling back to " + result.locationSetting + " forecast cached at " +
+                    cachedResponse.fetchedAt);
+            MessageDigest digest = newContentDigest();
+            reader = newResponseReader(cachedResponse.body, digest);
+            ForecastJsonParser.Forecast forecast = ForecastJsonParser.parse(reader);
+
+            // The cached days are numbered from the day it was fetched, not from today
+            ForecastValidators validators =
+                    ForecastValidators.load(getContext(), result.locationSetting);
+            boolean isStored = validators.isFromDay(cachedResponse.julianDay)
+                    && hasForecastFor(result.locationSetting);
+            setForecastIfChanged(result, forecast, cachedResponse.julianDay,
+                    toHex(digest.digest()), isStored ? validators : null,
+                    cachedResponse.etag, cachedResponse.lastModified);
+        } catch (IOException | JSONException e) {
+            Log.e(LOG_TAG, "Unable to read cached forecast", e);
+        } finally {
+            try {
+                if (reader != null) {
+                    reader.close();
+                } else {
+                    cachedResponse.close();
                 }
+            } catch (final IOException e) {
+                Log.e(LOG_TAG, "Error closing cached response", e);
             }
+        }
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+    private ForecastResponseCache.Editor editCachedResponse(ForecastResponseCache responseCache,
+                                                            String cacheKey, int julianDay,
+                                                            String etag, String lastModified) {
+        try {
+            return responseCache.edit(cacheKey, julianDay, etag, lastModified);
+        } catch (IOException e) {
+            // Not being able to cache it is no reason not to use it
+            Log.w(LOG_TAG, "Unable to cache forecast", e);
+            return null;
+        }
+    }
 
-                double high;
-                double low;
+    /**
+     * Keeps a running total of forecast bytes received against bytes decoded, and logs it along
+     * with how long this download took.
+     */
+    private void recordTransfer(long wireBytes, long decodedBytes, long elapsedMillis) {
+        long totalWireBytes;
+        long totalDecodedBytes;
+        synchronized (SunshineSyncAdapter.class) {
+            sWireBytes += wireBytes;
+            sDecodedBytes += decodedBytes;
+            totalWireBytes = sWireBytes;
+            totalDecodedBytes = sDecodedBytes;
+        }
+        Log.d(LOG_TAG, "Forecast download: " + wireBytes + " bytes on the wire, " +
+                decodedBytes + " decoded, " + elapsedMillis + "ms.  Since start: " +
+                totalWireBytes + " on the wire, " + totalDecodedBytes + " decoded");
+    }
 
-                String description;
-                int weatherId;
+    /**
+     * A reader over a response body that feeds everything it reads into the digest.
+     */
+    private static Reader newResponseReader(InputStream in, MessageDigest digest)
+            throws IOException {
+        return new InputStreamReader(new DigestInputStream(in, digest), "UTF-8");
+    }
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+    /**
+     * Take the forecasts pulled out of the server responses, and store them.  The rows come out
+     * of the parser in day order, without their date or location; both are filled in here.
+     * Everything, from adding new locations to clearing out past days, goes to the provider as
+     * one batch, so it lands in one transaction and whoever's watching hears about it once.
+     *
+     * @param preferredLocation the location whose status is shown to the user
+     */
+    private void storeForecasts(List<FetchResult> results, String preferredLocation) {
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        // now we work exclusively in julian days, see JulianDay
+        int julianToday = JulianDay.today();
+
+        // Most syncs bring back much the same forecast as last time, so each day is upserted:
+        // only the rows that actually changed get written.
+        Uri upsertUri = WeatherContract.WeatherEntry.buildWeatherUpsertUri();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        int rowCount = 0;
+        for (FetchResult result : results) {
+            if (result.forecast == null) continue;
+            ForecastJsonParser.Forecast forecast = result.forecast;
+
+            // A location we haven't seen before is inserted in the same batch, and its days
+            // pick up the new row's ID from the result of that insert.
+            long locationId = LocationIdCache.getLocationId(getContext(), result.locationSetting);
+            int locationOperation = -1;
+            if (locationId == -1) {
+                locationOperation = operations.size();
+                operations.add(newLocationInsert(result.locationSetting, forecast.cityName,
+                        forecast.cityLatitude, forecast.cityLongitude));
+            }
 
+            // A forecast from the response cache can start before today.  Those days are past,
+            // so leave them out rather than have them deleted again straight away.
+            int pastDays = Math.min(Math.max(julianToday - result.julianStartDay, 0),
+                    forecast.days.size());
+            for (int i = pastDays; i < forecast.days.size(); i++) {
+                ContentValues weatherValues = forecast.days.get(i);
                 // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                        JulianDay.toMillis(result.julianStartDay + i));
+                ContentProviderOperation.Builder upsert =
+                        ContentProviderOperation.newUpdate(upsertUri);
+                if (locationOperation == -1) {
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                    upsert.withValues(weatherValues);
+                } else {
+                    upsert.withValues(weatherValues).withValueBackReference(
+                            WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationOperation);
+                }
+                operations.add(upsert.build());
+                rowCount++;
             }
+        }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+        // add to database
+        int changedRows = 0;
+        if ( rowCount > 0 ) {
+            // move old data into the archive so we don't build up an endless forecast
+            operations.add(ContentProviderOperation
+                    .newDelete(WeatherContract.WeatherEntry.buildWeatherArchivingUri())
+                    .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                            new String[] {Long.toString(JulianDay.toMillis(julianToday-1))})
+                    .build());
+
+            try {
+                ContentProviderResult[] batchResults = getContext().getContentResolver()
+                        .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+                for (ContentProviderResult batchResult : batchResults) {
+                    // Inserts come back with a Uri, upserts and the delete with a count
+                    changedRows += batchResult.count != null ? batchResult.count : 1;
+                }
+            } catch (RemoteException | OperationApplicationException | SQLException e) {
+                // Nothing was written, so there's nothing to claim we have.  If it was a location
+                // we thought was new that clashed, find out what's really there next time.
+                LocationIdCache.invalidate();
+                Log.e(LOG_TAG, "Unable to store forecasts", e);
+                return;
+            }
 
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
+            // Only now that the rows are in can we claim to have them
+            for (FetchResult result : results) {
+                if (result.forecast == null) continue;
+                new ForecastValidators(result.locationSetting, result.etag, result.lastModified,
+                        result.contentHash, result.julianStartDay).save(getContext());
+            }
 
+            // Nothing to redraw if the database didn't change
+            if (changedRows > 0) {
                 updateWidgets();
                 updateMuzei();
                 notifyWeather();
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + changedRows + " of " + rowCount +
+                " rows changed for " + results.size() + " locations");
+
+        for (FetchResult result : results) {
+            if (result.locationSetting.equals(preferredLocation)) {
+                setLocationStatus(getContext(), result.status);
+            } else if (result.status != LOCATION_STATUS_OK) {
+                Log.w(LOG_TAG, "Sync of " + result.locationSetting + " failed: " + result.status);
+            }
+        }
+    }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+    /**
+     * The fetches share one small pool, so syncing dozens of locations can't open dozens of
+     * connections at once.  Its threads die off when the sync is over.
+     */
+    private static ExecutorService getFetchExecutor() {
+        synchronized (SunshineSyncAdapter.class) {
+            if (sFetchExecutor == null) {
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                        MAX_CONCURRENT_FETCHES, MAX_CONCURRENT_FETCHES,
+                        FETCH_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>());
+                executor.allowCoreThreadTimeOut(true);
+                sFetchExecutor = executor;
+            }
+            return sFetchExecutor;
+        }
+    }
+
+    /**
+     * A conditional request is only safe while the rows it would revalidate are still there,
+     * for instance after a schema upgrade that dropped them.
+     */
+    private boolean hasForecastFor(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                        WeatherContract.WeatherEntry._ID},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static MessageDigest newContentDigest() {
+        try {
+            return MessageDigest.getInstance(CONTENT_DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android release ships MD5
+            throw new IllegalStateException(e);
         }
     }
 
+    private static String toHex(byte[] bytes) {
+        final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+
     private void updateWidgets() {
         Context context = getContext();
         // Setting the package ensures that only components in our app will receive the broadcast
@@ -393,16 +692,17 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
                 String locationQuery = Utility.getPreferredLocation(context);
 
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+                long now = System.currentTimeMillis();
 
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+                // we'll ask our contentProvider for just what the notification shows
+                WeatherSummary today = WeatherSummary.getDay(context, locationQuery, now);
 
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                // Only today's weather will do
+                if (today != null && today.date == WeatherContract.normalizeDate(now)) {
+                    int weatherId = today.weatherId;
+                    double high = today.high;
+                    double low = today.low;
+                    String desc = today.description;
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
@@ -478,59 +778,35 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Helper method to build the insertion of a new location in the weather database, to go in
+     * a batch with its weather.
      *
      * @param locationSetting The location string used to request updates from the server.
      * @param cityName A human-readable city name, e.g "Mountain View"
      * @param lat the latitude of the city
      * @param lon the longitude of the city
-     * @return the row ID of the added location.
+     * @return the insert operation.  Its result holds the Uri, and so the ID, of the new row.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+    static ContentProviderOperation newLocationInsert(String locationSetting, String cityName,
+                                                      double lat, double lon) {
+        // First create a ContentValues object to hold the data you want to insert.
+        ContentValues locationValues = new ContentValues();
+
+        // Then add the data, along with the corresponding name of the data type,
+        // so the content provider knows what kind of value is being inserted.
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+
+        return ContentProviderOperation.newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                .withValues(locationValues)
+                .build();
     }
 
     /**
@@ -2,10 +2,8 @@ package com.example.android.sunshine.app.wear;
 
 import android.app.IntentService;
 import android.content.Intent;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -14,7 +12,7 @@ import android.util.Log;
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.request.target.Target;
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherSummary;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
@@ -33,21 +31,7 @@ import java.util.concurrent.ExecutionException;
  */
 public class WearSendUpdates extends IntentService implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
     private static final String TAG = WearSendUpdates.class.getSimpleName();
-    private Cursor cursor;
     private GoogleApiClient googleApiClient;
-    private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
-    };
-    // these indices must match the projection
-    static final int INDEX_WEATHER_ID = 0;
-    static final int INDEX_WEATHER_CONDITION_ID = 1;
-    static final int INDEX_WEATHER_DESC = 2;
-    static final int INDEX_WEATHER_MAX_TEMP = 3;
-    static final int INDEX_WEATHER_MIN_TEMP = 4;
 
     private int weatherId;
     private double maxTemp;
@@ -75,24 +59,16 @@ public class WearSendUpdates extends IntentService implements GoogleApiClient.Co
         Log.i(TAG, "on Handle Intent");
         if (intent != null) {
            String location = Utility.getPreferredLocation(this);
-            Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
-            cursor = getContentResolver().query(uri, FORECAST_COLUMNS, null, null,
-                    WeatherContract.WeatherEntry.COLUMN_DATE+ " ASC");
+            WeatherSummary today = WeatherSummary.getDay(this, location, System.currentTimeMillis());
 
-            if(cursor == null){
+            if(today == null){
                 return;
             }
-
-            if(!cursor.moveToFirst()){
-                cursor.close();
-                return;
-            }
-            weatherId = cursor.getInt(INDEX_WEATHER_CONDITION_ID);
-            maxTemp = cursor.getDouble(INDEX_WEATHER_MAX_TEMP);
-            minTemp = cursor.getDouble(INDEX_WEATHER_MIN_TEMP);
+            weatherId = today.weatherId;
+            maxTemp = today.high;
+            minTemp = today.low;
 
             Log.i(TAG, String.valueOf(maxTemp));
-            cursor.close();
             if(googleApiClient == null){
                 googleApiClient = new GoogleApiClient.Builder(this)
                         .addApi(Wearable.API)